@@ -48,6 +48,7 @@ open module org.s7s.core.instance {
 	requires io.netty.resolver.dns;
 	requires io.netty.transport;
 	requires java.prefs;
+	requires jdk.unsupported;
 	requires org.slf4j;
 
 	uses org.s7s.core.instance.plugin.SandpolisPlugin;
@@ -15,7 +15,6 @@ import static org.s7s.core.instance.network.NetworkStore.NetworkStore;
 import java.util.concurrent.CompletionStage;
 
 import com.google.protobuf.MessageLiteOrBuilder;
-import org.s7s.core.instance.state.InstanceOids.ProfileOid.ConnectionOid;
 import org.s7s.core.instance.connection.Connection;
 import org.s7s.core.instance.exelet.Exelet;
 
@@ -49,7 +48,7 @@ public abstract class Cmdlet<E extends Cmdlet<E>> {
 	 */
 	public E target(Connection sock) {
 		this.target = checkNotNull(sock);
-		this.sid = sock.get(ConnectionOid.REMOTE_SID).asInt();
+		this.sid = sock.remoteSid();
 		return (E) this;
 	}
 
@@ -17,6 +17,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 import java.util.stream.Stream;
 
 import javax.net.ssl.SSLPeerUnverifiedException;
@@ -25,8 +26,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.protobuf.MessageLiteOrBuilder;
+import org.s7s.core.foundation.Instance.InstanceType;
 import org.s7s.core.foundation.S7SRandom;
 import org.s7s.core.instance.state.InstanceOids.ProfileOid.ConnectionOid;
+import org.s7s.core.instance.state.Sampler.Sample;
+import org.s7s.core.instance.state.oid.Oid;
+import org.s7s.core.instance.state.st.EphemeralAttribute;
+import org.s7s.core.instance.state.st.STAttribute.RetentionPolicy;
 import org.s7s.core.instance.state.st.STDocument;
 import org.s7s.core.instance.state.vst.AbstractSTDomainObject;
 import org.s7s.core.protocol.Message.MSG;
@@ -41,6 +47,7 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.traffic.ChannelTrafficShapingHandler;
+import io.netty.handler.traffic.TrafficCounter;
 import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.Future;
 
@@ -55,13 +62,65 @@ public class Connection extends AbstractSTDomainObject {
 
 	private static final Logger log = LoggerFactory.getLogger(Connection.class);
 
+	/**
+	 * The number of milliseconds between samples of the traffic metrics.
+	 */
+	private static final long TRAFFIC_SAMPLE_PERIOD = 1000;
+
+	/**
+	 * The number of milliseconds for which traffic samples are retained.
+	 */
+	private static final int TRAFFIC_RETENTION = 10 * 60 * 1000;
+
+	private static final int SLOT_REMOTE_SID = 0;
+
+	private static final int SLOT_CONNECTED = 1;
+
+	private static final int SLOT_AUTHENTICATED = 2;
+
+	private static final int SLOT_REMOTE_INSTANCE = 3;
+
+	/**
+	 * The attributes that are read on every message or lookup.
+	 */
+	private static final Slots SLOTS = new Slots(ConnectionOid.REMOTE_SID, ConnectionOid.CONNECTED,
+			ConnectionOid.AUTHENTICATED, ConnectionOid.REMOTE_INSTANCE);
+
 	/**
 	 * The underlying {@link Channel} which handles all I/O.
 	 */
 	private Channel channel;
 
 	public Connection(STDocument document) {
-		super(document);
+		super(document, SLOTS);
+	}
+
+	/**
+	 * @return The remote instance's SID
+	 */
+	public int remoteSid() {
+		return get(SLOT_REMOTE_SID).asInt();
+	}
+
+	/**
+	 * @return The remote instance's type
+	 */
+	public InstanceType remoteInstance() {
+		return get(SLOT_REMOTE_INSTANCE).asInstanceType();
+	}
+
+	/**
+	 * @return Whether the connection is established
+	 */
+	public boolean isConnected() {
+		return get(SLOT_CONNECTED).asBoolean();
+	}
+
+	/**
+	 * @return Whether the connection is authenticated
+	 */
+	public boolean isAuthenticated() {
+		return get(SLOT_AUTHENTICATED).asBoolean();
 	}
 
 	/**
@@ -81,45 +140,28 @@ public class Connection extends AbstractSTDomainObject {
 		get(ConnectionOid.AUTHENTICATED).source(channel().attr(ChannelConstant.AUTH_STATE)::get);
 		get(ConnectionOid.CONNECTED)
 				.source(() -> channel().attr(ChannelConstant.HANDSHAKE_FUTURE).get().isDone() && channel().isActive());
-		get(ConnectionOid.CUMULATIVE_READ_BYTES).source(() -> {
-			var trafficHandler = getTrafficHandler();
-			if (trafficHandler.isPresent()) {
-				return trafficHandler.get().trafficCounter().cumulativeReadBytes();
-			}
-			return -1L;
-		});
-		get(ConnectionOid.CUMULATIVE_WRITE_BYTES).source(() -> {
-			var trafficHandler = getTrafficHandler();
-			if (trafficHandler.isPresent()) {
-				return trafficHandler.get().trafficCounter().cumulativeWrittenBytes();
-			}
-			return -1L;
-		});
-		get(ConnectionOid.READ_THROUGHPUT).source(() -> {
-			var trafficHandler = getTrafficHandler();
-			if (trafficHandler.isPresent()) {
-				return trafficHandler.get().trafficCounter().lastReadThroughput();
-			}
-			return -1L;
-		});
-		get(ConnectionOid.WRITE_THROUGHPUT).source(() -> {
-			var trafficHandler = getTrafficHandler();
-			if (trafficHandler.isPresent()) {
-				return trafficHandler.get().trafficCounter().lastWriteThroughput();
-			}
-			return -1L;
+		var samples = Stream.of( //
+				sampleTraffic(ConnectionOid.CUMULATIVE_READ_BYTES, TrafficCounter::cumulativeReadBytes), //
+				sampleTraffic(ConnectionOid.CUMULATIVE_WRITE_BYTES, TrafficCounter::cumulativeWrittenBytes), //
+				sampleTraffic(ConnectionOid.READ_THROUGHPUT, TrafficCounter::lastReadThroughput), //
+				sampleTraffic(ConnectionOid.WRITE_THROUGHPUT, TrafficCounter::lastWriteThroughput) //
+		).filter(Objects::nonNull).toList();
+
+		// Only stop the samples for this channel in case it was replaced
+		channel.closeFuture().addListener(future -> {
+			samples.forEach(Sample::cancel);
 		});
 
 		if (this.channel instanceof EmbeddedChannel) {
 			get(ConnectionOid.REMOTE_ADDRESS).source(() -> {
-				if (!get(ConnectionOid.CONNECTED).asBoolean())
+				if (!isConnected())
 					return null;
 
 				return channel().remoteAddress().toString();
 			});
 		} else {
 			get(ConnectionOid.REMOTE_ADDRESS).source(() -> {
-				if (!get(ConnectionOid.CONNECTED).asBoolean())
+				if (!isConnected())
 					return null;
 
 				return ((InetSocketAddress) channel().remoteAddress()).getAddress().getHostAddress();
@@ -127,14 +169,14 @@ public class Connection extends AbstractSTDomainObject {
 		}
 
 		get(ConnectionOid.REMOTE_PORT).source(() -> {
-			if (!get(ConnectionOid.CONNECTED).asBoolean())
+			if (!isConnected())
 				return null;
 
 			return ((InetSocketAddress) channel().remoteAddress()).getPort();
 		});
 
 		get(ConnectionOid.LOCAL_PORT).source(() -> {
-			if (!get(ConnectionOid.CONNECTED).asBoolean())
+			if (!isConnected())
 				return null;
 
 			return ((InetSocketAddress) channel().localAddress()).getPort();
@@ -144,26 +186,49 @@ public class Connection extends AbstractSTDomainObject {
 			if (!get(ConnectionOid.REMOTE_SID).isPresent())
 				return null;
 
-			return S7SSessionID.of(get(ConnectionOid.REMOTE_SID).asInt()).instanceType();
+			return S7SSessionID.of(remoteSid()).instanceType();
 		});
 
 		get(ConnectionOid.REMOTE_INSTANCE_FLAVOR).source(() -> {
 			if (!get(ConnectionOid.REMOTE_SID).isPresent())
 				return null;
 
-			return S7SSessionID.of(get(ConnectionOid.REMOTE_SID).asInt()).instanceFlavor();
+			return S7SSessionID.of(remoteSid()).instanceFlavor();
 		});
 
 		get(ConnectionOid.LOCAL_SID).source(NetworkStore::sid);
 	}
 
+	/**
+	 * Sample a traffic metric periodically so that it's recorded as a time series
+	 * which remote instances can stream.
+	 *
+	 * @param oid    The metric's attribute
+	 * @param metric The metric's getter
+	 * @return The sample's handle
+	 */
+	private Sample sampleTraffic(Oid oid, ToLongFunction<TrafficCounter> metric) {
+		var attribute = get(oid);
+		if (attribute instanceof EphemeralAttribute ephemeral) {
+			ephemeral.setRetention(RetentionPolicy.TIME_LIMITED, TRAFFIC_RETENTION);
+		}
+
+		return attribute.sample(() -> {
+			var trafficHandler = getTrafficHandler();
+			if (trafficHandler.isPresent()) {
+				return metric.applyAsLong(trafficHandler.get().trafficCounter());
+			}
+			return -1L;
+		}, TRAFFIC_SAMPLE_PERIOD);
+	}
+
 	/**
 	 * Transition this {@link Connection} into the authenticated state which enables
 	 * it to handle messages that require authentication.
 	 */
 	public void authenticate() {
-		checkState(get(ConnectionOid.CONNECTED).asBoolean());
-		checkState(!get(ConnectionOid.AUTHENTICATED).asBoolean());
+		checkState(isConnected());
+		checkState(!isAuthenticated());
 
 		channel().attr(ChannelConstant.AUTH_STATE).set(true);
 	}
@@ -192,8 +257,8 @@ public class Connection extends AbstractSTDomainObject {
 	 * prevents it from handling messages that require authentication.
 	 */
 	public void deauthenticate() {
-		checkState(get(ConnectionOid.CONNECTED).asBoolean());
-		checkState(get(ConnectionOid.AUTHENTICATED).asBoolean());
+		checkState(isConnected());
+		checkState(isAuthenticated());
 
 		channel().attr(ChannelConstant.AUTH_STATE).set(false);
 	}
@@ -234,7 +299,7 @@ public class Connection extends AbstractSTDomainObject {
 	}
 
 	public X509Certificate getRemoteCertificate() throws SSLPeerUnverifiedException {
-		checkState(get(ConnectionOid.CONNECTED).asBoolean());
+		checkState(isConnected());
 
 		return (X509Certificate) getHandler(HandlerKey.TLS)
 				.orElseThrow(() -> new SSLPeerUnverifiedException("SSL is disabled"))
@@ -312,7 +377,7 @@ public class Connection extends AbstractSTDomainObject {
 	 * @return An asynchronous {@link CompletionStage}
 	 */
 	public <T> CompletionStage<T> request(Class<T> responseType, MessageLiteOrBuilder payload) {
-		return request(S7SMsg.rq().pack(payload).setTo(get(ConnectionOid.REMOTE_SID).asInt())
+		return request(S7SMsg.rq().pack(payload).setTo(remoteSid())
 				.setFrom(get(ConnectionOid.LOCAL_SID).asInt()).build()).toCompletionStage(responseType);
 	}
 
@@ -19,7 +19,6 @@ import org.slf4j.LoggerFactory;
 
 import com.google.protobuf.MessageLite;
 import com.google.protobuf.MessageLiteOrBuilder;
-import org.s7s.core.instance.state.InstanceOids.ProfileOid.ConnectionOid;
 import org.s7s.core.instance.util.S7SMsg;
 
 public class ExeletMethod {
@@ -57,7 +56,7 @@ public class ExeletMethod {
 
 			handler = context -> {
 				// Access control
-				if (!context.connector.get(ConnectionOid.AUTHENTICATED).asBoolean() && metadata.auth()) {
+				if (!context.connector.isAuthenticated() && metadata.auth()) {
 					return;
 				}
 
@@ -82,7 +81,7 @@ public class ExeletMethod {
 
 			handler = context -> {
 				// Access control
-				if (!context.connector.get(ConnectionOid.AUTHENTICATED).asBoolean() && metadata.auth()) {
+				if (!context.connector.isAuthenticated() && metadata.auth()) {
 					return;
 				}
 
@@ -102,7 +101,7 @@ public class ExeletMethod {
 
 			handler = context -> {
 				// Access control
-				if (!context.connector.get(ConnectionOid.AUTHENTICATED).asBoolean() && metadata.auth()) {
+				if (!context.connector.isAuthenticated() && metadata.auth()) {
 					return;
 				}
 
@@ -133,7 +132,7 @@ public class ExeletMethod {
 
 			handler = context -> {
 				// Access control
-				if (!context.connector.get(ConnectionOid.AUTHENTICATED).asBoolean() && metadata.auth()) {
+				if (!context.connector.isAuthenticated() && metadata.auth()) {
 					return;
 				}
 
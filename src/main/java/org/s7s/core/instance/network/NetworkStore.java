@@ -26,7 +26,6 @@ import com.google.common.graph.NetworkBuilder;
 import org.s7s.core.instance.Entrypoint;
 import org.s7s.core.instance.InstanceContext;
 import org.s7s.core.foundation.Instance.InstanceType;
-import org.s7s.core.instance.state.InstanceOids.ProfileOid.ConnectionOid;
 import org.s7s.core.instance.state.st.STDocument;
 import org.s7s.core.instance.store.ConfigurableStore;
 import org.s7s.core.instance.store.STCollectionStore;
@@ -233,7 +232,7 @@ public final class NetworkStore extends STCollectionStore<Connection> implements
 	@Subscribe
 	private synchronized void onSockEstablished(SockEstablishedEvent event) {
 
-		var remote_sid = event.connection().get(ConnectionOid.REMOTE_SID).asInt();
+		var remote_sid = event.connection().remoteSid();
 
 		// Add node if not already present
 		if (!network.nodes().contains(remote_sid)) {
@@ -246,7 +245,7 @@ public final class NetworkStore extends STCollectionStore<Connection> implements
 
 		if (Entrypoint.data().instance() != InstanceType.SERVER) {
 			// See if that was the first connection to a server
-			if (event.connection().get(ConnectionOid.REMOTE_INSTANCE).asInstanceType() == InstanceType.SERVER) {
+			if (event.connection().remoteInstance() == InstanceType.SERVER) {
 				// TODO
 				postAsync(new ServerEstablishedEvent(remote_sid));
 			}
@@ -256,8 +255,8 @@ public final class NetworkStore extends STCollectionStore<Connection> implements
 	@Subscribe
 	private synchronized void onSockLost(SockLostEvent event) {
 		if (network.nodes().contains(sid())
-				&& network.nodes().contains(event.connection().get(ConnectionOid.REMOTE_SID).asInt()))
-			network.edgeConnecting(sid(), event.connection().get(ConnectionOid.REMOTE_SID).asInt())
+				&& network.nodes().contains(event.connection().remoteSid()))
+			network.edgeConnecting(sid(), event.connection().remoteSid())
 					.ifPresent(network::removeEdge);
 
 		// Remove nodes that are now disconnected
@@ -268,7 +267,7 @@ public final class NetworkStore extends STCollectionStore<Connection> implements
 			// Check whether a server is still reachable after losing the connection
 			for (var node : network.nodes()) {
 				if (S7SSessionID.of(node).instanceType() == InstanceType.SERVER) {
-					if (network.edgesConnecting(node, event.connection().get(ConnectionOid.REMOTE_SID).asInt())
+					if (network.edgesConnecting(node, event.connection().remoteSid())
 							.size() > 0) {
 						return;
 					}
@@ -276,7 +275,7 @@ public final class NetworkStore extends STCollectionStore<Connection> implements
 			}
 
 			// No servers are reachable
-			postAsync(new ServerLostEvent(event.connection().get(ConnectionOid.REMOTE_SID).asInt()));
+			postAsync(new ServerLostEvent(event.connection().remoteSid()));
 		}
 	}
 
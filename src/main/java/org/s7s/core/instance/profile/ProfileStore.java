@@ -101,6 +101,9 @@ public final class ProfileStore extends STCollectionStore<Profile> implements Co
 		// Apply configuration
 		setDocument(config.collection);
 
+		// Most profiles are idle at any given time
+		setColdTier(true);
+
 		// Create the local instance if it doesn't exist
 		if (getByUuid(Entrypoint.data().uuid()).isEmpty()) {
 			create(profile -> {
@@ -57,8 +57,10 @@ public class SessionRequestHandler extends AbstractSessionHandler {
 
 		// Succeeded
 		NetworkStore.setSid(rs.getInstanceSid());
-		sock.set(ConnectionOid.REMOTE_SID, rs.getServerSid());
-		sock.set(ConnectionOid.REMOTE_UUID, rs.getServerUuid());
+		sock.batch(() -> {
+			sock.set(ConnectionOid.REMOTE_SID, rs.getServerSid());
+			sock.set(ConnectionOid.REMOTE_UUID, rs.getServerUuid());
+		});
 
 		log.debug("Session handshake succeeded ({})", rs.getInstanceSid());
 		userEventTriggered(ctx, new SessionHandshakeCompletionEvent(rs.getInstanceSid(), rs.getServerSid()));
@@ -60,9 +60,11 @@ public class SessionResponseHandler extends AbstractSessionHandler {
 			ch.writeAndFlush(S7SMsg.rs(msg).pack(RS_Session.newBuilder().setServerSid(NetworkStore.sid())
 					.setServerUuid(Entrypoint.data().uuid()).setInstanceSid(sid)).build());
 
-			sock.set(ConnectionOid.REMOTE_INSTANCE, rq.getInstanceType());
-			sock.set(ConnectionOid.REMOTE_SID, sid);
-			sock.set(ConnectionOid.REMOTE_UUID, rq.getInstanceUuid());
+			sock.batch(() -> {
+				sock.set(ConnectionOid.REMOTE_INSTANCE, rq.getInstanceType());
+				sock.set(ConnectionOid.REMOTE_SID, sid);
+				sock.set(ConnectionOid.REMOTE_UUID, rq.getInstanceUuid());
+			});
 			super.userEventTriggered(ctx, new SessionHandshakeCompletionEvent(NetworkStore.sid(), sid));
 		}
 	}
@@ -0,0 +1,144 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * Utilities for copy-on-write listener arrays. Listeners are arbitrary objects
+ * with one-argument methods annotated with {@link Subscribe}, just like
+ * listeners of a Guava {@code EventBus}.
+ *
+ * <p>
+ * The subscriber methods of each listener class are resolved once and cached.
+ * Unlike {@code EventBus}, subscriber invocations are never synchronized, so
+ * listeners must be thread-safe.
+ */
+public final class Listeners {
+
+	private static final Logger log = LoggerFactory.getLogger(Listeners.class);
+
+	private static record Handler(Class<?> type, MethodHandle handle) {
+	}
+
+	private static final ClassValue<Handler[]> HANDLERS = new ClassValue<>() {
+
+		@Override
+		protected Handler[] computeValue(Class<?> type) {
+			var handlers = new ArrayList<Handler>();
+			var seen = new HashSet<String>();
+
+			for (var c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (var method : c.getDeclaredMethods()) {
+					if (!method.isAnnotationPresent(Subscribe.class))
+						continue;
+					if (method.getParameterCount() != 1)
+						throw new IllegalArgumentException("Subscriber method must have exactly one parameter: " + method);
+
+					// Overridden methods are only invoked once
+					if (!seen.add(method.getName() + method.getParameterTypes()[0].getName()))
+						continue;
+
+					try {
+						method.setAccessible(true);
+						handlers.add(new Handler(method.getParameterTypes()[0], MethodHandles.lookup().unreflect(method)));
+					} catch (IllegalAccessException e) {
+						throw new IllegalArgumentException("Inaccessible subscriber method: " + method, e);
+					}
+				}
+			}
+
+			return handlers.toArray(Handler[]::new);
+		}
+	};
+
+	/**
+	 * Add a listener to a listener array.
+	 *
+	 * @param listeners The existing listeners or {@code null}
+	 * @param listener  The new listener
+	 * @return A new array containing the listener
+	 */
+	public static Object[] add(Object[] listeners, Object listener) {
+
+		// Validate subscriber methods early
+		HANDLERS.get(listener.getClass());
+
+		if (listeners == null) {
+			return new Object[] { listener };
+		}
+		for (var l : listeners) {
+			if (l == listener)
+				return listeners;
+		}
+
+		var copy = Arrays.copyOf(listeners, listeners.length + 1);
+		copy[listeners.length] = listener;
+		return copy;
+	}
+
+	/**
+	 * Remove a listener from a listener array.
+	 *
+	 * @param listeners The existing listeners or {@code null}
+	 * @param listener  The listener to remove
+	 * @return A new array without the listener or {@code null} if it would be
+	 *         empty
+	 */
+	public static Object[] remove(Object[] listeners, Object listener) {
+		if (listeners == null)
+			return null;
+
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				if (listeners.length == 1)
+					return null;
+
+				var copy = new Object[listeners.length - 1];
+				System.arraycopy(listeners, 0, copy, 0, i);
+				System.arraycopy(listeners, i + 1, copy, i, listeners.length - i - 1);
+				return copy;
+			}
+		}
+		return listeners;
+	}
+
+	/**
+	 * Deliver an event to every subscriber method of the given listeners that
+	 * accepts it.
+	 *
+	 * @param listeners The listeners
+	 * @param event     The event
+	 */
+	public static void post(Object[] listeners, Object event) {
+		for (var listener : listeners) {
+			for (var handler : HANDLERS.get(listener.getClass())) {
+				if (handler.type.isInstance(event)) {
+					try {
+						handler.handle.invoke(listener, event);
+					} catch (Throwable e) {
+						log.error("Exception thrown by subscriber: {}", listener, e);
+					}
+				}
+			}
+		}
+	}
+
+	private Listeners() {
+	}
+}
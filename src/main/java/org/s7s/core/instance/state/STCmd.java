@@ -19,6 +19,7 @@ import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Range;
 import org.s7s.core.foundation.S7SRandom;
 import org.s7s.core.protocol.Stream.RQ_STStream;
 import org.s7s.core.protocol.Stream.RS_STStream;
@@ -46,10 +47,27 @@ public class STCmd extends Cmdlet<STCmd> {
 		public RQ_STStream.Direction direction = RQ_STStream.Direction.DOWNSTREAM;
 		public boolean initiator;
 		public int streamId = S7SRandom.nextNonzeroInt();
+
+		/**
+		 * The period in milliseconds at which changes are flushed. Multiple changes
+		 * to the same attribute within a period are conflated into one update. If
+		 * zero, every change is sent immediately.
+		 */
 		public int updatePeriod;
+
 		public List<Oid> whitelist = new ArrayList<>();
 		public boolean permanent = true;
 
+		/**
+		 * If specified, only historical values in this index range are sent.
+		 */
+		public Range<Integer> indexSelection;
+
+		/**
+		 * If specified, only historical values in this timestamp range are sent.
+		 */
+		public Range<Long> timestampSelection;
+
 		public STSyncStruct(Consumer<STSyncStruct> configurator) {
 			configurator.accept(this);
 
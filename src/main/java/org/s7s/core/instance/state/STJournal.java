@@ -0,0 +1,426 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state;
+
+import static org.s7s.core.instance.state.STStore.STStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Range;
+import org.s7s.core.instance.state.oid.Oid.PathComponent;
+import org.s7s.core.instance.state.st.STAttribute;
+import org.s7s.core.instance.state.st.STDocument;
+import org.s7s.core.instance.state.st.STObject;
+import org.s7s.core.protocol.Stream.EV_STStreamData;
+
+/**
+ * A write-ahead journal that makes a state tree durable across restarts.
+ *
+ * <p>
+ * Every change is appended to the current log segment as a record containing
+ * the version of the modification and a serialized {@link EV_STStreamData}.
+ * Records are queued by the modifying thread while it still holds the modified
+ * object's lock, so records for the same object are always queued in order. A
+ * single writer thread drains all pending records at once and syncs them with
+ * one {@code fsync} (group commit). Periodically, a checkpoint of the whole
+ * tree is written from a consistent view and log segments that it covers are
+ * deleted, so recovery only needs to replay the log tail.
+ *
+ * <p>
+ * Records for different objects may be written out of version order, so
+ * recovery sorts the log tail by version before replaying it.
+ */
+final class STJournal implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(STJournal.class);
+
+	private static final String CHECKPOINT_SUFFIX = ".ckpt";
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static record Record(long version, byte[] data) {
+	}
+
+	/**
+	 * The number of milliseconds to wait before retrying a failed write.
+	 */
+	private static final long RETRY_DELAY = 1000;
+
+	private static record Segment(Path path, long maxVersion) {
+	}
+
+	private final Path directory;
+
+	private final STDocument root;
+
+	private final BlockingQueue<Record> pending = new LinkedBlockingQueue<>();
+
+	/**
+	 * Closed segments which can be deleted once a checkpoint covers them.
+	 */
+	private final List<Segment> closed = new ArrayList<>();
+
+	private final Thread writer;
+
+	private final ScheduledExecutorService checkpointer;
+
+	private FileChannel channel;
+
+	private Path current;
+
+	/**
+	 * The highest version written to the current segment.
+	 */
+	private long currentMaxVersion;
+
+	private volatile boolean running = true;
+
+	/**
+	 * Set when the writer should start a new segment before its next write.
+	 */
+	private volatile boolean rotate;
+
+	/**
+	 * The most recent write failure or {@code null} if the last write succeeded.
+	 */
+	private volatile IOException failure;
+
+	STJournal(Path directory, STDocument root, long checkpointInterval) {
+		this.directory = directory;
+		this.root = root;
+
+		try {
+			Files.createDirectories(directory);
+			recover();
+			openSegment();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		writer = new Thread(this::write, "st.journal");
+		writer.setDaemon(true);
+		writer.start();
+
+		checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+			var thread = new Thread(r, "st.checkpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+		checkpointer.scheduleWithFixedDelay(this::checkpoint, checkpointInterval, checkpointInterval,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private List<Path> list(String suffix) throws IOException {
+		try (var files = Files.list(directory)) {
+			return files.filter(p -> p.getFileName().toString().endsWith(suffix)).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static long parseVersion(Path path) {
+		var name = path.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.indexOf('.')));
+	}
+
+	/**
+	 * Load the latest checkpoint and replay any newer log records into the tree.
+	 */
+	private void recover() throws IOException {
+		long checkpoint = 0;
+
+		var checkpoints = list(CHECKPOINT_SUFFIX);
+		if (!checkpoints.isEmpty()) {
+			var latest = checkpoints.get(checkpoints.size() - 1);
+			checkpoint = parseVersion(latest);
+
+			var records = new ArrayList<Record>();
+			read(latest, 0, records);
+			for (var record : records) {
+				root.merge(EV_STStreamData.parseFrom(record.data));
+			}
+			log.debug("Loaded checkpoint: {}", latest);
+		}
+
+		// Collect the log tail and replay it in version order
+		var tail = new ArrayList<Record>();
+		long version = checkpoint;
+		for (var segment : list(SEGMENT_SUFFIX)) {
+			long maxVersion = read(segment, checkpoint, tail);
+			log.debug("Read log segment: {}", segment);
+
+			closed.add(new Segment(segment, maxVersion));
+			version = Math.max(version, maxVersion);
+		}
+
+		// The sort is stable, so records with the same version keep their order
+		tail.sort(Comparator.comparingLong(Record::version));
+		for (var record : tail) {
+			root.merge(EV_STStreamData.parseFrom(record.data));
+		}
+
+		// Versions must keep increasing across restarts
+		STStore.advanceVersion(version);
+
+		// Delete stale checkpoints
+		for (int i = 0; i < checkpoints.size() - 1; i++) {
+			Files.deleteIfExists(checkpoints.get(i));
+		}
+	}
+
+	/**
+	 * Read all records in the given file that are newer than the given version.
+	 * A truncated record at the end of the file is ignored.
+	 *
+	 * @return The highest version in the file
+	 */
+	private long read(Path file, long after, List<Record> records) throws IOException {
+		long maxVersion = 0;
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			while (true) {
+				long version;
+				byte[] data;
+				try {
+					version = in.readLong();
+					data = new byte[in.readInt()];
+					in.readFully(data);
+				} catch (EOFException e) {
+					break;
+				}
+
+				if (version > after) {
+					records.add(new Record(version, data));
+				}
+				maxVersion = Math.max(maxVersion, version);
+			}
+		}
+		return maxVersion;
+	}
+
+	private void openSegment() throws IOException {
+		// Never reopen an existing segment which may end with a truncated record
+		long name = STStore.version();
+		do {
+			current = directory.resolve(String.format("%020d%s", name++, SEGMENT_SUFFIX));
+		} while (Files.exists(current));
+
+		channel = FileChannel.open(current, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		currentMaxVersion = 0;
+	}
+
+	private void append(long version, EV_STStreamData data) {
+		pending.add(new Record(version, data.toByteArray()));
+	}
+
+	/**
+	 * @return Whether the given object belongs to the journaled tree
+	 */
+	private boolean contains(STObject object) {
+		for (STObject o = object; o != null; o = o.parent()) {
+			if (o == root)
+				return true;
+		}
+		return false;
+	}
+
+	private String relative(STObject object) {
+		return Arrays.stream(object.oid().path()).skip(root.oid().path().length).map(PathComponent::element)
+				.collect(Collectors.joining("/"));
+	}
+
+	/**
+	 * Journal the current value of an attribute. The caller must hold the
+	 * attribute's lock.
+	 *
+	 * @param attribute The modified attribute
+	 * @param version   The version of the modification
+	 */
+	void append(STAttribute attribute, long version) {
+		if (!contains(attribute))
+			return;
+
+		if (!attribute.isPresent()) {
+			// A cleared value must not come back on recovery
+			append(version, EV_STStreamData.newBuilder().setRemoved(true).setOid(relative(attribute)).build());
+			return;
+		}
+
+		long timestamp = attribute.timestamp();
+		attribute.snapshot(config -> {
+			config.oid = root.oid();
+			config.timestampSelection = Range.atLeast(timestamp);
+		}).forEach(data -> append(version, data));
+	}
+
+	/**
+	 * Journal the removal of an object from its parent.
+	 *
+	 * @param object  The removed object
+	 * @param version The version of the removal
+	 */
+	void appendRemoval(STObject object, long version) {
+		if (!contains(object))
+			return;
+
+		append(version, EV_STStreamData.newBuilder().setRemoved(true).setOid(relative(object)).build());
+	}
+
+	/**
+	 * Write pending records in batches until closed.
+	 */
+	private void write() {
+		var batch = new ArrayList<Record>();
+		while (running || !pending.isEmpty() || !batch.isEmpty()) {
+			try {
+				// A failed batch is retried before anything new is taken
+				if (batch.isEmpty()) {
+					var first = pending.poll(100, TimeUnit.MILLISECONDS);
+					if (first == null)
+						continue;
+
+					batch.add(first);
+				}
+				pending.drainTo(batch);
+
+				if (rotate) {
+					rotate = false;
+					try {
+						channel.close();
+					} catch (IOException e) {
+						log.warn("Failed to close journal segment: {}", current, e);
+					}
+					synchronized (closed) {
+						closed.add(new Segment(current, currentMaxVersion));
+					}
+					openSegment();
+				}
+
+				int size = 0;
+				for (var record : batch) {
+					size += Long.BYTES + Integer.BYTES + record.data.length;
+				}
+				var buffer = ByteBuffer.allocate(size);
+				for (var record : batch) {
+					buffer.putLong(record.version).putInt(record.data.length).put(record.data);
+					currentMaxVersion = Math.max(currentMaxVersion, record.version);
+				}
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+
+				// One sync for the whole batch
+				channel.force(false);
+				batch.clear();
+				failure = null;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (IOException e) {
+				log.error("Failed to write {} journal records, retrying in a new segment", batch.size(), e);
+				failure = e;
+
+				// Part of the batch may have been written, but a truncated record at the end
+				// of a segment is ignored and a duplicated record is harmless
+				rotate = true;
+				try {
+					Thread.sleep(RETRY_DELAY);
+				} catch (InterruptedException i) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write a checkpoint of the entire tree and delete log segments that it
+	 * covers.
+	 */
+	void checkpoint() {
+		rotate = true;
+
+		try (var view = root.view()) {
+			var target = directory.resolve(String.format("%020d%s", view.version(), CHECKPOINT_SUFFIX));
+			var temp = directory.resolve(target.getFileName() + ".tmp");
+
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				for (var data : (Iterable<EV_STStreamData>) view.snapshot()::iterator) {
+					var bytes = data.toByteArray();
+					out.writeLong(view.version());
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			}
+			try (var sync = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				sync.force(true);
+			}
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+
+			// Remove older checkpoints and covered segments
+			for (var checkpoint : list(CHECKPOINT_SUFFIX)) {
+				if (!checkpoint.equals(target))
+					Files.deleteIfExists(checkpoint);
+			}
+			synchronized (closed) {
+				for (var it = closed.iterator(); it.hasNext();) {
+					var segment = it.next();
+					if (segment.maxVersion <= view.version()) {
+						Files.deleteIfExists(segment.path);
+						it.remove();
+					}
+				}
+			}
+
+			log.debug("Wrote checkpoint: {}", target);
+		} catch (IOException e) {
+			log.error("Failed to write checkpoint", e);
+		}
+	}
+
+	@Override
+	public void close() throws Exception {
+		checkpointer.shutdown();
+		running = false;
+		writer.join(10000);
+
+		if (writer.isAlive()) {
+			writer.interrupt();
+			var cause = failure;
+			throw new UncheckedIOException("Failed to flush " + pending.size() + " journal records",
+					cause != null ? cause : new IOException("Journal writer didn't stop"));
+		}
+		channel.close();
+	}
+}
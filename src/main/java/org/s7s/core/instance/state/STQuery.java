@@ -0,0 +1,168 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collector;
+
+import org.s7s.core.instance.state.oid.Oid;
+import org.s7s.core.instance.state.oid.Oid.PathComponent;
+import org.s7s.core.instance.state.st.STAttribute;
+import org.s7s.core.instance.state.st.STDocument;
+
+/**
+ * An aggregation over every attribute that matches a generic OID. Path
+ * elements of "*" match any child. The tree is traversed with a fork-join
+ * task that splits the children of large wildcard levels, and each task
+ * accumulates into its own container which are then combined.
+ *
+ * <p>
+ * Visiting a document doesn't count as an access, so queries don't prevent
+ * idle documents from being evicted to the cold tier.
+ *
+ * @param <T> The projected value type
+ * @param <A> The collector's container type
+ * @param <R> The result type
+ */
+final class STQuery<T, A, R> {
+
+	/**
+	 * The number of documents at a wildcard level below which they're visited
+	 * sequentially.
+	 */
+	private static final int THRESHOLD = 64;
+
+	private static final String WILDCARD = "*";
+
+	private final STDocument root;
+
+	/**
+	 * The path elements relative to the root document.
+	 */
+	private final String[] path;
+
+	private final Function<? super STAttribute, ? extends T> projection;
+
+	private final Predicate<? super T> filter;
+
+	private final Collector<? super T, A, R> collector;
+
+	/**
+	 * Visits a range of documents at the same level of the path.
+	 */
+	private final class Level extends RecursiveTask<A> {
+
+		private final STDocument[] documents;
+
+		private final int from;
+
+		private final int to;
+
+		private final int depth;
+
+		private Level(STDocument[] documents, int from, int to, int depth) {
+			this.documents = documents;
+			this.from = from;
+			this.to = to;
+			this.depth = depth;
+		}
+
+		@Override
+		protected A compute() {
+			if (to - from > THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				var left = new Level(documents, from, mid, depth).fork();
+				var right = new Level(documents, mid, to, depth).compute();
+				return collector.combiner().apply(left.join(), right);
+			}
+
+			A container = collector.supplier().get();
+			for (int i = from; i < to; i++) {
+				container = visit(documents[i], depth, container);
+			}
+			return container;
+		}
+	}
+
+	STQuery(STDocument root, Oid pattern, Function<? super STAttribute, ? extends T> projection,
+			Predicate<? super T> filter, Collector<? super T, A, R> collector) {
+		if (!root.oid().isAncestorOf(pattern))
+			throw new IllegalArgumentException(pattern + " is not a descendant of: " + root.oid());
+
+		this.path = Arrays.stream(pattern.path()).skip(root.oid().path().length).map(PathComponent::element)
+				.toArray(String[]::new);
+		if (path.length == 0)
+			throw new IllegalArgumentException("Empty OID");
+
+		this.root = root;
+		this.projection = projection;
+		this.filter = filter;
+		this.collector = collector;
+	}
+
+	@SuppressWarnings("unchecked")
+	R execute() {
+		A container = ForkJoinPool.commonPool().invoke(new Level(new STDocument[] { root }, 0, 1, 0));
+
+		if (collector.characteristics().contains(Collector.Characteristics.IDENTITY_FINISH))
+			return (R) container;
+		return collector.finisher().apply(container);
+	}
+
+	private A visit(STDocument document, int depth, A container) {
+		var element = path[depth];
+
+		// Read documents in the cold tier without faulting them back in
+		document = document.peek();
+
+		if (depth == path.length - 1) {
+			if (WILDCARD.equals(element)) {
+				document.forEachAttribute(attribute -> accumulate(container, attribute));
+			} else {
+				var attribute = document.peekAttribute(element);
+				if (attribute != null)
+					accumulate(container, attribute);
+			}
+			return container;
+		}
+
+		if (WILDCARD.equals(element)) {
+			var children = new ArrayList<STDocument>();
+			document.forEachDocument(children::add);
+
+			if (children.size() > THRESHOLD) {
+				var level = new Level(children.toArray(STDocument[]::new), 0, children.size(), depth + 1);
+				return collector.combiner().apply(container, level.invoke());
+			}
+
+			for (var child : children) {
+				container = visit(child, depth + 1, container);
+			}
+		} else {
+			var child = document.peekDocument(element);
+			if (child != null)
+				container = visit(child, depth + 1, container);
+		}
+		return container;
+	}
+
+	private void accumulate(A container, STAttribute attribute) {
+		if (!attribute.isPresent())
+			return;
+
+		T value = projection.apply(attribute);
+		if (filter.test(value))
+			collector.accumulator().accept(container, value);
+	}
+}
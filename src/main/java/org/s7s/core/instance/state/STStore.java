@@ -8,17 +8,31 @@
 //============================================================================//
 package org.s7s.core.instance.state;
 
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collector;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.s7s.core.instance.InstanceContext;
 import org.s7s.core.instance.state.STStore.STStoreConfig;
 import org.s7s.core.instance.state.oid.Oid;
+import org.s7s.core.instance.state.st.ColdTier;
+import org.s7s.core.instance.state.st.EphemeralAttribute.EphemeralAttributeValue;
+import org.s7s.core.instance.state.st.EphemeralDocument;
 import org.s7s.core.instance.state.st.STAttribute;
 import org.s7s.core.instance.state.st.STDocument;
+import org.s7s.core.instance.state.st.STObject;
 import org.s7s.core.instance.store.ConfigurableStore;
 import org.s7s.core.instance.store.StoreBase;
 
@@ -33,6 +47,60 @@ public final class STStore extends StoreBase implements ConfigurableStore<STStor
 
 	private ExecutorService service;
 
+	/**
+	 * Runs periodic maintenance tasks.
+	 */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Expires attributes and documents that have a time-to-live.
+	 */
+	private TimingWheel wheel;
+
+	/**
+	 * The time of the last timer tick or 0 if the timer isn't running.
+	 */
+	private volatile long clock;
+
+	/**
+	 * Polls sampled attributes on the pool when triggered by the scheduler.
+	 */
+	private Sampler sampler;
+
+	/**
+	 * The directory that holds spilled attribute history or {@code null} if
+	 * spilling is disabled.
+	 */
+	private Path spillDirectory;
+
+	private int spillWindow;
+
+	private int offHeapThreshold;
+
+	/**
+	 * The tier to which idle documents are evicted or {@code null} if eviction is
+	 * disabled.
+	 */
+	private ColdTier coldTier;
+
+	/**
+	 * The journal that persists the state tree or {@code null} if the tree is not
+	 * durable.
+	 */
+	private volatile STJournal journal;
+
+	private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+
+	/**
+	 * The version of the most recent modification to any state tree.
+	 */
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * The number of open views keyed by the version at which they were registered.
+	 */
+	private final ConcurrentSkipListMap<Long, Integer> views = new ConcurrentSkipListMap<>();
+
 	public STStore() {
 		super(log);
 	}
@@ -45,23 +113,497 @@ public final class STStore extends StoreBase implements ConfigurableStore<STStor
 		return service;
 	}
 
+	/**
+	 * Get the version of the most recent modification. Versions increase
+	 * monotonically, so they can be used as watermarks.
+	 *
+	 * @return The current version
+	 */
+	public long version() {
+		return version.get();
+	}
+
+	/**
+	 * Allocate a new version for a modification.
+	 *
+	 * @return The new version
+	 */
+	public long nextVersion() {
+		return version.incrementAndGet();
+	}
+
+	/**
+	 * Record the current value of a modified attribute in the journal if the
+	 * attribute belongs to the durable tree. This must be called by the modifying
+	 * thread while it still holds the attribute's lock.
+	 *
+	 * @param attribute The modified attribute
+	 * @param version   The version of the modification
+	 */
+	public void journal(STAttribute attribute, long version) {
+		var journal = this.journal;
+		if (journal != null)
+			journal.append(attribute, version);
+	}
+
+	/**
+	 * Record the removal of an object in the journal if the object belongs to the
+	 * durable tree. This must be called by the removing thread.
+	 *
+	 * @param object  The removed object
+	 * @param version The version of the removal
+	 */
+	public void journalRemoval(STObject object, long version) {
+		var journal = this.journal;
+		if (journal != null)
+			journal.appendRemoval(object, version);
+	}
+
+	/**
+	 * Ensure that future versions are greater than the given version.
+	 *
+	 * @param minimum The minimum current version
+	 */
+	void advanceVersion(long minimum) {
+		version.accumulateAndGet(minimum, Math::max);
+	}
+
+	/**
+	 * Register a new view. Until it's closed with {@link #closeView(long)},
+	 * modifications preserve the values that were current at the returned
+	 * version.
+	 *
+	 * @return A handle for the view which must be passed to
+	 *         {@link #closeView(long)}
+	 */
+	public long openView() {
+		long key = version.get();
+		views.merge(key, 1, Integer::sum);
+		return key;
+	}
+
+	/**
+	 * Unregister a view.
+	 *
+	 * @param key The handle returned by {@link #openView()}
+	 */
+	public void closeView(long key) {
+		views.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+	}
+
+	/**
+	 * @return The lowest version that an open view may read or
+	 *         {@link Long#MAX_VALUE} if there are no open views
+	 */
+	public long oldestView() {
+		var oldest = views.firstEntry();
+		return oldest == null ? Long.MAX_VALUE : oldest.getKey();
+	}
+
+	/**
+	 * Register a listener that receives events from every object at or below the
+	 * given OID pattern. Path elements of "*" match any element. The objects don't
+	 * need to exist yet.
+	 *
+	 * @param pattern  The OID pattern
+	 * @param listener The listener
+	 */
+	public void subscribe(Oid pattern, Object listener) {
+		subscriptions.register(pattern, listener);
+	}
+
+	/**
+	 * Remove a listener that was registered with {@link #subscribe(Oid, Object)}.
+	 *
+	 * @param pattern  The OID pattern
+	 * @param listener The listener
+	 */
+	public void unsubscribe(Oid pattern, Object listener) {
+		subscriptions.unregister(pattern, listener);
+	}
+
+	/**
+	 * @return Whether any listeners are registered with
+	 *         {@link #subscribe(Oid, Object)}
+	 */
+	public boolean hasSubscribers() {
+		return !subscriptions.isEmpty();
+	}
+
+	/**
+	 * @param oid The OID of an object
+	 * @return Whether any listener registered with
+	 *         {@link #subscribe(Oid, Object)} would receive events generated by
+	 *         the object
+	 */
+	public boolean hasSubscribers(Oid oid) {
+		return !subscriptions.isEmpty() && subscriptions.matches(oid);
+	}
+
+	/**
+	 * Deliver an event to the given listeners and to the subscribers whose
+	 * patterns match the OID of the object that generated it. All listeners are
+	 * invoked from a single pool task.
+	 *
+	 * @param oid       The OID of the object that generated the event
+	 * @param event     The event
+	 * @param listeners Listener arrays that should also receive the event or
+	 *                  {@code null}
+	 */
+	public void dispatch(Oid oid, Object event, List<Object[]> listeners) {
+		dispatch(oid, event, listeners, -1);
+	}
+
+	/**
+	 * Deliver an event like {@link #dispatch(Oid, Object, List)}, but only to
+	 * subscribers whose patterns have more than the given number of path
+	 * elements.
+	 *
+	 * @param oid       The OID of the object that generated the event
+	 * @param event     The event
+	 * @param listeners Listener arrays that should also receive the event or
+	 *                  {@code null}
+	 * @param minLength The pattern length threshold
+	 */
+	public void dispatch(Oid oid, Object event, List<Object[]> listeners, int minLength) {
+		if (!subscriptions.isEmpty()) {
+			listeners = subscriptions.match(oid, minLength, listeners);
+		}
+		if (listeners == null || listeners.isEmpty())
+			return;
+
+		final var targets = listeners;
+		service.submit(() -> {
+			for (var l : targets) {
+				Listeners.post(l, event);
+			}
+		});
+	}
+
+	/**
+	 * Get the directory under which attributes with unlimited retention (or
+	 * time-limited retention of non-numeric values) spill their history to disk.
+	 *
+	 * @return The spill directory or {@code null} if spilling is disabled
+	 */
+	public Path spillDirectory() {
+		return spillDirectory;
+	}
+
+	/**
+	 * @return The number of recent values that spilled histories keep in memory
+	 */
+	public int spillWindow() {
+		return spillWindow;
+	}
+
+	/**
+	 * Get the size at which large attribute values are stored off-heap.
+	 *
+	 * @return The threshold in bytes or 0 if values are never stored off-heap
+	 */
+	public int offHeapThreshold() {
+		return offHeapThreshold;
+	}
+
+	/**
+	 * Get the estimated number of heap bytes retained by the document at the given
+	 * OID and its descendants.
+	 *
+	 * @param oid The document OID
+	 * @return The estimated size in bytes or 0 if the document doesn't exist or
+	 *         doesn't track its size
+	 */
+	public long retainedSize(Oid oid) {
+		if (peek(oid) instanceof EphemeralDocument document)
+			return document.retainedSize();
+		return 0;
+	}
+
+	/**
+	 * Get the number of objects in the subtree of the document at the given OID.
+	 *
+	 * @param oid The document OID
+	 * @return The node count or 0 if the document doesn't exist or doesn't track
+	 *         its size
+	 */
+	public long nodeCount(Oid oid) {
+		if (peek(oid) instanceof EphemeralDocument document)
+			return document.nodeCount();
+		return 0;
+	}
+
+	/**
+	 * Find the document at the given OID without creating it or any of its
+	 * ancestors. Documents below the cold tier aren't read from disk.
+	 *
+	 * @param oid The document OID
+	 * @return The document or {@code null} if it doesn't exist
+	 */
+	private STDocument peek(Oid oid) {
+		var document = root;
+		for (var component : oid.path()) {
+			if (!(document instanceof EphemeralDocument))
+				return null;
+			document = document.peekDocument(component.element());
+			if (document == null)
+				return null;
+		}
+		return document;
+	}
+
+	/**
+	 * Publish the size of each top-level document as attributes under
+	 * {@code /metrics/memory}.
+	 */
+	private void publishMetrics() {
+		var metrics = root.document("metrics").document("memory");
+		if (root instanceof EphemeralDocument document) {
+			metrics.attribute("retained_bytes").setLong(document.retainedSize());
+			metrics.attribute("node_count").setLong(document.nodeCount());
+		}
+
+		root.forEachDocument(child -> {
+			if (child instanceof EphemeralDocument document && !"metrics".equals(document.getId())) {
+				var m = metrics.document(document.getId());
+				m.attribute("retained_bytes").setLong(document.retainedSize());
+				m.attribute("node_count").setLong(document.nodeCount());
+			}
+		});
+	}
+
+	/**
+	 * Get the current time with the resolution of the store's timer tick. This is
+	 * much cheaper than {@link System#currentTimeMillis()} for bookkeeping on hot
+	 * paths like access tracking.
+	 *
+	 * @return The time in milliseconds
+	 */
+	public long clock() {
+		long clock = this.clock;
+		return clock != 0 ? clock : System.currentTimeMillis();
+	}
+
+	/**
+	 * Schedule a task to run on the store's pool after the given delay. The delay
+	 * has the resolution of the store's timer tick, so this is only suitable for
+	 * coarse timeouts like expiry.
+	 *
+	 * @param task  The task
+	 * @param delay The delay in milliseconds
+	 * @return A handle which can cancel the task
+	 */
+	public TimingWheel.Timeout schedule(Runnable task, long delay) {
+		if (wheel == null)
+			throw new IllegalStateException("Store not initialized");
+
+		return wheel.schedule(task, delay);
+	}
+
+	/**
+	 * Aggregate every attribute that matches a generic OID without materializing
+	 * domain objects. Path elements of "*" match any child, so a single query can
+	 * visit an attribute of every profile. The tree is traversed in parallel on
+	 * the common fork-join pool, so the projection and filter must be
+	 * thread-safe.
+	 *
+	 * @param <T>        The projected value type
+	 * @param <A>        The collector's container type
+	 * @param <R>        The result type
+	 * @param pattern    The generic attribute OID
+	 * @param projection Extracts a value from each matching attribute that has a
+	 *                   value
+	 * @param filter     Selects the projected values to aggregate
+	 * @param aggregate  Aggregates the selected values
+	 * @return The aggregate result
+	 */
+	public <T, A, R> R query(Oid pattern, Function<? super STAttribute, ? extends T> projection,
+			Predicate<? super T> filter, Collector<? super T, A, R> aggregate) {
+		if (root == null)
+			throw new IllegalStateException("Store not initialized");
+
+		return new STQuery<>(root, pattern, projection, filter, aggregate).execute();
+	}
+
+	/**
+	 * Aggregate the values of every attribute that matches a generic OID.
+	 *
+	 * @param <R>       The result type
+	 * @param pattern   The generic attribute OID
+	 * @param aggregate Aggregates the attribute values
+	 * @return The aggregate result
+	 * @see #query(Oid, Function, Predicate, Collector)
+	 */
+	public <R> R query(Oid pattern, Collector<Object, ?, R> aggregate) {
+		return query(pattern, STAttribute::get, value -> true, aggregate);
+	}
+
+	/**
+	 * @return The sampler for periodically polled attributes or {@code null} if
+	 *         the store isn't initialized
+	 */
+	public Sampler sampler() {
+		return sampler;
+	}
+
+	/**
+	 * @return The cold tier or {@code null} if idle documents are never evicted
+	 */
+	public ColdTier coldTier() {
+		return coldTier;
+	}
+
 	@Override
 	public void init(Consumer<STStoreConfig> configurator) {
 		var config = new STStoreConfig(configurator);
 
 		service = Executors.newFixedThreadPool(config.concurrency);
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			var thread = new Thread(r, "st.scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		var wheel = new TimingWheel(service, config.timerTick, config.timerWheelSize);
+		this.wheel = wheel;
+		clock = System.currentTimeMillis();
+		scheduler.scheduleAtFixedRate(() -> {
+			clock = System.currentTimeMillis();
+			wheel.advance();
+		}, config.timerTick, config.timerTick, TimeUnit.MILLISECONDS);
+		sampler = new Sampler(scheduler, service);
 		root = config.root;
+		offHeapThreshold = config.offHeapThreshold;
+
+		if (config.spill) {
+			spillDirectory = config.spillDirectory != null ? config.spillDirectory
+					: InstanceContext.PATH_DATA.get().resolve("history");
+			spillWindow = config.spillWindow;
+		}
+
+		if (config.coldIdle > 0) {
+			coldTier = new ColdTier(config.coldDirectory != null ? config.coldDirectory : InstanceContext.PATH_DATA.get(),
+					config.coldIdle, config.coldBudget);
+		}
+
+		if (config.metricsInterval > 0 && root != null) {
+			scheduler.scheduleWithFixedDelay(this::publishMetrics, 0, config.metricsInterval, TimeUnit.MILLISECONDS);
+		}
+
+		if (config.durable) {
+			journal = new STJournal(config.journalDirectory != null ? config.journalDirectory
+					: InstanceContext.PATH_DATA.get().resolve("state"), root, config.checkpointInterval);
+		}
 	}
 
 	@Override
 	public void close() throws Exception {
+		// The store may be closed more than once or without being initialized
+		var scheduler = this.scheduler;
+		if (scheduler == null)
+			return;
+
+		this.scheduler = null;
+		scheduler.shutdown();
+		scheduler.awaitTermination(1, TimeUnit.SECONDS);
+		clock = 0;
+		wheel = null;
+		sampler = null;
+		spillDirectory = null;
+		if (coldTier != null) {
+			coldTier.close();
+			coldTier = null;
+		}
+		var journal = this.journal;
+		this.journal = null;
 		service.shutdown();
+		if (journal != null) {
+			journal.close();
+		}
 	}
 
 	public final class STStoreConfig {
 		public int concurrency = 1;
 		public STDocument root;
 
+		/**
+		 * Whether attributes with unlimited retention (or time-limited retention of
+		 * non-numeric values) should spill old values to memory-mapped files.
+		 */
+		public boolean spill;
+
+		/**
+		 * The spill directory which defaults to a subdirectory of
+		 * {@link InstanceContext#PATH_DATA}.
+		 */
+		public Path spillDirectory;
+
+		/**
+		 * The number of recent values to keep in memory when spilling.
+		 */
+		public int spillWindow = 1024;
+
+		/**
+		 * The size in bytes at which {@code BYTES} and {@code STRING} values are
+		 * stored in pooled direct buffers instead of on the heap. Certificates are
+		 * always stored in encoded form off-heap. A value of 0 disables off-heap
+		 * storage, which is the default.
+		 */
+		public int offHeapThreshold;
+
+		/**
+		 * The number of milliseconds after which unused documents in collections with
+		 * a cold tier are evicted to disk. A value of 0 disables eviction.
+		 */
+		public long coldIdle;
+
+		/**
+		 * The maximum retained size in bytes of the resident documents in
+		 * collections with a cold tier or 0 for no limit.
+		 */
+		public long coldBudget;
+
+		/**
+		 * The directory under which the cold tier creates its own subdirectory which
+		 * defaults to {@link InstanceContext#PATH_DATA}.
+		 */
+		public Path coldDirectory;
+
+		/**
+		 * The number of milliseconds between updates of the memory metrics under
+		 * {@code /metrics/memory}. A value of 0 disables them.
+		 */
+		public long metricsInterval;
+
+		/**
+		 * The resolution in milliseconds of the timer that expires attributes and
+		 * documents.
+		 */
+		public long timerTick = 100;
+
+		/**
+		 * The number of buckets in the expiry timer. Timeouts longer than one
+		 * revolution of the wheel are still supported, but cost an extra visit per
+		 * revolution.
+		 */
+		public int timerWheelSize = 512;
+
+		/**
+		 * Whether changes to the root document should be journaled to disk and
+		 * recovered when the store is initialized.
+		 */
+		public boolean durable;
+
+		/**
+		 * The journal directory which defaults to a subdirectory of
+		 * {@link InstanceContext#PATH_DATA}.
+		 */
+		public Path journalDirectory;
+
+		/**
+		 * The number of milliseconds between checkpoints of a durable tree.
+		 */
+		public long checkpointInterval = 60000;
+
 		private STStoreConfig(Consumer<STStoreConfig> configurator) {
 			configurator.accept(this);
 		}
@@ -77,4 +619,16 @@ public final class STStore extends StoreBase implements ConfigurableStore<STStor
 		return root.attribute(oid);
 	}
 
+	/**
+	 * Get the historical values of the attribute at the given OID. If the OID has
+	 * an index or timestamp selector, only the matching slice is returned.
+	 *
+	 * @param oid The attribute OID
+	 * @return An unmodifiable view of the selected history which reflects later
+	 *         updates
+	 */
+	public List<EphemeralAttributeValue> history(Oid oid) {
+		return attribute(oid).history(oid.indexSelection(), oid.timestampSelection());
+	}
+
 }
@@ -0,0 +1,160 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.s7s.core.instance.state.st.STAttribute;
+
+/**
+ * Periodically polls suppliers and stores the results in attributes. Unlike an
+ * attribute source, a sampled value is an ordinary value, so it's recorded in
+ * the attribute's history and fires change events.
+ *
+ * <p>
+ * Samples with the same period share a single scheduled task, so they're
+ * polled together. The scheduler only triggers polls; suppliers are evaluated
+ * and attributes updated on a separate executor so that slow suppliers don't
+ * delay other timers.
+ */
+public final class Sampler {
+
+	private static final Logger log = LoggerFactory.getLogger(Sampler.class);
+
+	/**
+	 * A handle to a registered sample.
+	 */
+	public final class Sample {
+
+		private final STAttribute attribute;
+
+		private final Supplier<?> source;
+
+		private final long period;
+
+		private volatile boolean cancelled;
+
+		private Sample(STAttribute attribute, Supplier<?> source, long period) {
+			this.attribute = attribute;
+			this.source = source;
+			this.period = period;
+		}
+
+		/**
+		 * Stop sampling. The attribute keeps its last sampled value. Cancelling a
+		 * sample more than once has no effect.
+		 */
+		public void cancel() {
+			cancelled = true;
+			Sampler.this.cancel(this);
+		}
+
+		/**
+		 * @return Whether the sample was cancelled
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		private void poll() {
+			try {
+				attribute.set(source.get());
+			} catch (RuntimeException e) {
+				log.warn("Failed to sample attribute: {}", attribute.oid(), e);
+			}
+		}
+	}
+
+	private static final class Group {
+
+		private final Set<Sample> samples = ConcurrentHashMap.newKeySet();
+
+		/**
+		 * Whether a poll is queued or running, in which case the next trigger is
+		 * skipped rather than queueing overlapping polls.
+		 */
+		private final AtomicBoolean polling = new AtomicBoolean();
+
+		private ScheduledFuture<?> future;
+
+		private void poll() {
+			try {
+				for (var sample : samples) {
+					sample.poll();
+				}
+			} finally {
+				polling.set(false);
+			}
+		}
+	}
+
+	private final ScheduledExecutorService scheduler;
+
+	private final Executor executor;
+
+	/**
+	 * The samples grouped by period.
+	 */
+	private final Map<Long, Group> groups = new HashMap<>();
+
+	/**
+	 * @param scheduler The scheduler which triggers polls
+	 * @param executor  The executor on which suppliers are polled
+	 */
+	public Sampler(ScheduledExecutorService scheduler, Executor executor) {
+		this.scheduler = scheduler;
+		this.executor = executor;
+	}
+
+	/**
+	 * Poll the given supplier periodically and set its result as the attribute's
+	 * value. The sample must be cancelled when it's no longer needed because the
+	 * sampler keeps the attribute reachable.
+	 *
+	 * @param attribute The attribute to update
+	 * @param source    The supplier of the attribute's value
+	 * @param period    The sample period in milliseconds
+	 * @return A handle which can cancel the sample
+	 */
+	public synchronized Sample schedule(STAttribute attribute, Supplier<?> source, long period) {
+		if (period <= 0)
+			throw new IllegalArgumentException("Invalid sample period: " + period);
+
+		var sample = new Sample(attribute, source, period);
+		groups.computeIfAbsent(period, p -> {
+			var group = new Group();
+			group.future = scheduler.scheduleAtFixedRate(() -> {
+				if (group.polling.compareAndSet(false, true))
+					executor.execute(group::poll);
+			}, p, p, TimeUnit.MILLISECONDS);
+			return group;
+		}).samples.add(sample);
+		return sample;
+	}
+
+	private synchronized void cancel(Sample sample) {
+		var group = groups.get(sample.period);
+		if (group != null && group.samples.remove(sample) && group.samples.isEmpty()) {
+			group.future.cancel(false);
+			groups.remove(sample.period);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.s7s.core.instance.state.oid.Oid;
+import org.s7s.core.instance.state.oid.Oid.PathComponent;
+
+/**
+ * A trie of OID patterns that have listeners attached. A listener registered on
+ * a pattern receives events for every object at or below a matching path. A
+ * pattern element of "*" matches any element at that level.
+ *
+ * <p>
+ * Patterns don't need to correspond to existing objects in the state tree.
+ */
+final class SubscriptionIndex {
+
+	private static final class Node {
+
+		private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>();
+
+		/**
+		 * The listeners registered on this node or {@code null} if there are none.
+		 */
+		private volatile Object[] listeners;
+	}
+
+	private final Node root = new Node();
+
+	/**
+	 * The total number of registered listeners.
+	 */
+	private volatile int size;
+
+	/**
+	 * Find the listeners of all patterns that match the given OID.
+	 *
+	 * @param oid       The OID of the object that generated an event
+	 * @param minLength Only patterns with more path elements than this are
+	 *                  matched
+	 * @param listeners The list to which matching listener arrays are added or
+	 *                  {@code null}
+	 * @return The list of matching listener arrays which may be {@code null} if
+	 *         there were none
+	 */
+	List<Object[]> match(Oid oid, int minLength, List<Object[]> listeners) {
+		return match(root, oid.path(), 0, minLength, listeners);
+	}
+
+	private List<Object[]> match(Node node, PathComponent[] path, int depth, int minLength,
+			List<Object[]> listeners) {
+		var l = node.listeners;
+		if (l != null && depth > minLength) {
+			if (listeners == null)
+				listeners = new ArrayList<>(4);
+			listeners.add(l);
+		}
+
+		if (depth == path.length)
+			return listeners;
+
+		var child = node.children.get(path[depth].element());
+		if (child != null)
+			listeners = match(child, path, depth + 1, minLength, listeners);
+
+		var wildcard = node.children.get("*");
+		if (wildcard != null && wildcard != child)
+			listeners = match(wildcard, path, depth + 1, minLength, listeners);
+
+		return listeners;
+	}
+
+	/**
+	 * Determine whether any pattern matches the given OID without collecting the
+	 * listeners.
+	 *
+	 * @param oid The OID of an object
+	 * @return Whether an event generated by the object would have subscribers
+	 */
+	boolean matches(Oid oid) {
+		return matches(root, oid.path(), 0);
+	}
+
+	private boolean matches(Node node, PathComponent[] path, int depth) {
+		if (node.listeners != null)
+			return true;
+		if (depth == path.length)
+			return false;
+
+		var child = node.children.get(path[depth].element());
+		if (child != null && matches(child, path, depth + 1))
+			return true;
+
+		var wildcard = node.children.get("*");
+		return wildcard != null && wildcard != child && matches(wildcard, path, depth + 1);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	synchronized void register(Oid pattern, Object listener) {
+		var node = root;
+		for (var component : pattern.path()) {
+			node = node.children.computeIfAbsent(component.element(), element -> new Node());
+		}
+
+		var listeners = Listeners.add(node.listeners, listener);
+		if (listeners != node.listeners) {
+			node.listeners = listeners;
+			size++;
+		}
+	}
+
+	synchronized void unregister(Oid pattern, Object listener) {
+		var path = pattern.path();
+		var nodes = new Node[path.length + 1];
+		nodes[0] = root;
+		for (int i = 0; i < path.length; i++) {
+			nodes[i + 1] = nodes[i].children.get(path[i].element());
+			if (nodes[i + 1] == null)
+				return;
+		}
+
+		var node = nodes[path.length];
+		var listeners = Listeners.remove(node.listeners, listener);
+		if (listeners != node.listeners) {
+			node.listeners = listeners;
+			size--;
+		}
+
+		// Prune nodes that no longer lead to any listeners
+		for (int i = path.length; i > 0; i--) {
+			if (nodes[i].listeners != null || !nodes[i].children.isEmpty())
+				break;
+			nodes[i - 1].children.remove(path[i - 1].element(), nodes[i]);
+		}
+	}
+}
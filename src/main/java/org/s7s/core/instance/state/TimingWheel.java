@@ -0,0 +1,177 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * A hashed timing wheel for large numbers of coarse timeouts. Scheduling and
+ * cancelling a timeout are O(1), and each tick only visits the timeouts in a
+ * single bucket.
+ *
+ * <p>
+ * The wheel doesn't keep time itself; {@link #advance()} must be called once
+ * per tick. Expired tasks are run on the given executor.
+ */
+public final class TimingWheel {
+
+	/**
+	 * A handle to a scheduled task.
+	 */
+	public final class Timeout {
+
+		private final Runnable task;
+
+		/**
+		 * The number of full revolutions remaining before the timeout expires.
+		 */
+		private long rounds;
+
+		/**
+		 * The index of the bucket containing this timeout or -1 if it's no longer
+		 * scheduled.
+		 */
+		private int bucket = -1;
+
+		private Timeout previous;
+
+		private Timeout next;
+
+		private Timeout(Runnable task) {
+			this.task = task;
+		}
+
+		/**
+		 * Prevent the task from running if it hasn't expired yet.
+		 *
+		 * @return Whether the timeout was cancelled
+		 */
+		public boolean cancel() {
+			synchronized (TimingWheel.this) {
+				if (bucket < 0)
+					return false;
+
+				unlink(this);
+				return true;
+			}
+		}
+	}
+
+	private final Executor executor;
+
+	/**
+	 * The head of each bucket's linked list.
+	 */
+	private final Timeout[] wheel;
+
+	private final int mask;
+
+	private final long tickDuration;
+
+	/**
+	 * The number of ticks since the wheel was created.
+	 */
+	private long tick;
+
+	/**
+	 * @param executor     The executor that runs expired tasks
+	 * @param tickDuration The duration of a tick in milliseconds
+	 * @param size         The number of buckets which is rounded up to a power of
+	 *                     two
+	 */
+	public TimingWheel(Executor executor, long tickDuration, int size) {
+		if (tickDuration <= 0)
+			throw new IllegalArgumentException("Invalid tick duration: " + tickDuration);
+		if (size <= 0 || size > (1 << 30))
+			throw new IllegalArgumentException("Invalid wheel size: " + size);
+
+		this.executor = executor;
+		this.tickDuration = tickDuration;
+
+		int capacity = 1;
+		while (capacity < size) {
+			capacity <<= 1;
+		}
+		this.wheel = new Timeout[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * @return The duration of a tick in milliseconds
+	 */
+	public long tickDuration() {
+		return tickDuration;
+	}
+
+	/**
+	 * Schedule a task to run after the given delay. The delay is rounded up to a
+	 * whole number of ticks.
+	 *
+	 * @param task  The task
+	 * @param delay The delay in milliseconds
+	 * @return A handle which can cancel the task
+	 */
+	public synchronized Timeout schedule(Runnable task, long delay) {
+		long ticks = Math.max(1, (delay + tickDuration - 1) / tickDuration);
+
+		var timeout = new Timeout(task);
+		timeout.rounds = (ticks - 1) / wheel.length;
+		timeout.bucket = (int) ((tick + ticks) & mask);
+
+		// Push onto the front of the bucket
+		timeout.next = wheel[timeout.bucket];
+		if (timeout.next != null)
+			timeout.next.previous = timeout;
+		wheel[timeout.bucket] = timeout;
+
+		return timeout;
+	}
+
+	private void unlink(Timeout timeout) {
+		if (timeout.previous != null)
+			timeout.previous.next = timeout.next;
+		else
+			wheel[timeout.bucket] = timeout.next;
+
+		if (timeout.next != null)
+			timeout.next.previous = timeout.previous;
+
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+	}
+
+	/**
+	 * Advance the wheel by one tick and run the tasks that expired.
+	 */
+	public void advance() {
+		var expired = new ArrayList<Runnable>();
+
+		synchronized (this) {
+			tick++;
+
+			var timeout = wheel[(int) (tick & mask)];
+			while (timeout != null) {
+				var next = timeout.next;
+				if (timeout.rounds == 0) {
+					unlink(timeout);
+					expired.add(timeout.task);
+				} else {
+					timeout.rounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		for (var task : expired) {
+			executor.execute(task);
+		}
+	}
+}
@@ -8,18 +8,16 @@
 //============================================================================//
 package org.s7s.core.instance.state.oid;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Objects;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.s7s.core.instance.state.oid.Oid.PathComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.ObjectArrays;
 import com.google.common.collect.Range;
@@ -40,34 +38,12 @@ import com.google.common.collect.Range;
  * virtual object, or "generic" which means the OID corresponds to multiple
  * objects of the same type.
  */
-public record Oid(
-
-		/**
-		 * The namespace identifier which is the module in which the Oid belongs.
-		 */
-		String namespace,
-
-		/**
-		 *
-		 */
-		PathComponent[] path,
-
-		/**
-		 *
-		 */
-		Range<Integer> indexSelection,
-
-		/**
-		 *
-		 */
-		Range<Long> timestampSelection) {
+public final class Oid {
 
 	public static record PathComponent(String element, String id, boolean hasId) {
 
 		public PathComponent(String element, String id, boolean hasId) {
-			if (!PATH_VALIDATOR.test(element)) {
-				throw new IllegalArgumentException();
-			}
+			checkElement(element, 0, element.length());
 
 			this.element = element;
 			this.id = id;
@@ -75,14 +51,7 @@ public record Oid(
 		}
 
 		public static PathComponent of(String component) {
-			if (component.endsWith("()")) {
-				return new PathComponent(component.substring(0, component.indexOf('(')), null, true);
-			} else if (component.endsWith(")") && component.contains("(")) {
-				return new PathComponent(component.substring(0, component.indexOf('(')),
-						component.substring(component.indexOf('(') + 1, component.indexOf(')')), true);
-			} else {
-				return new PathComponent(component, null, false);
-			}
+			return component(component, 0, component.length());
 		}
 
 		public PathComponent resolve(String id) {
@@ -94,164 +63,286 @@ public record Oid(
 		}
 	}
 
+	/**
+	 * The namespace identifier which is the module in which the Oid belongs.
+	 */
+	private final String namespace;
+
+	private final PathComponent[] path;
+
+	/**
+	 * The interned structure of the path which is used for fast comparisons.
+	 */
+	private final PathNode node;
+
+	private final Range<Integer> indexSelection;
+
+	private final Range<Long> timestampSelection;
+
+	/**
+	 * The cached string form of this OID.
+	 */
+	private String string;
+
+	/**
+	 * The cached hash code of this OID.
+	 */
+	private int hash;
+
+	public Oid(String namespace, PathComponent[] path, Range<Integer> indexSelection, Range<Long> timestampSelection) {
+		this(namespace, path, PathNode.ROOT.descendant(path), indexSelection, timestampSelection);
+	}
+
+	private Oid(String namespace, PathComponent[] path, PathNode node, Range<Integer> indexSelection,
+			Range<Long> timestampSelection) {
+		this.namespace = Objects.requireNonNull(namespace);
+		this.path = Objects.requireNonNull(path);
+		this.node = node;
+		this.indexSelection = indexSelection;
+		this.timestampSelection = timestampSelection;
+	}
+
+	public String namespace() {
+		return namespace;
+	}
+
+	/**
+	 * @return The path components which must not be modified
+	 */
+	public PathComponent[] path() {
+		return path;
+	}
+
+	public Range<Integer> indexSelection() {
+		return indexSelection;
+	}
+
+	public Range<Long> timestampSelection() {
+		return timestampSelection;
+	}
+
 	private static final String DEFAULT_NAMESPACE = "org.s7s.core.instance";
 
 	private static final Logger log = LoggerFactory.getLogger(Oid.class);
 
-	private static final Predicate<String> NAMESPACE_VALIDATOR = Pattern.compile("^[a-z\\.]+$").asMatchPredicate();
-
-	private static final Predicate<String> PATH_VALIDATOR = Pattern.compile("^[a-z0-9_\\-*]+$").asMatchPredicate();
+	/**
+	 * Recently parsed OIDs keyed by their string form. Parsed OIDs are immutable,
+	 * so they can be shared between callers.
+	 */
+	private static final Cache<String, Oid> PARSE_CACHE = CacheBuilder.newBuilder().maximumSize(4096).build();
 
-	private static boolean checkRelationship(String[] ancestor, String[] descendant) {
+	private static boolean checkRelationship(Oid ancestor, Oid descendant) {
 
 		// The descendant cannot be shorter than the ancestor
-		if (descendant.length < ancestor.length) {
+		if (descendant.node.depth < ancestor.node.depth) {
 			return false;
 		}
 
-		descendant = descendant.clone();
-		ancestor = ancestor.clone();
+		// Without wildcards, the descendant's prefix must be the ancestor's node
+		var prefix = descendant.node.ancestor(ancestor.node.depth);
+		if (!ancestor.node.generic && !prefix.generic) {
+			return prefix == ancestor.node;
+		}
 
-		// Make any generic entries in ancestor also generic in the descendant
-		for (int i = 0; i < ancestor.length; i++) {
-			if (ancestor[i].equals("*")) {
-				descendant[i] = "*";
-			}
+		return checkRelationship(ancestor.path, descendant.path);
+	}
+
+	private static boolean checkRelationship(PathComponent[] ancestor, PathComponent[] descendant) {
+
+		// The descendant cannot be shorter than the ancestor
+		if (descendant.length < ancestor.length) {
+			return false;
 		}
 
-		// Make any generic entries in descendant also generic in the ancestor
 		for (int i = 0; i < ancestor.length; i++) {
-			if (descendant[i].equals("*")) {
-				ancestor[i] = "*";
+			var a = ancestor[i].element();
+			var d = descendant[i].element();
+
+			// Generic entries match anything
+			if (a.equals("*") || d.equals("*")) {
+				continue;
+			}
+			if (!a.equals(d)) {
+				return false;
 			}
 		}
-
-		int index = Arrays.mismatch(descendant, ancestor);
-		return index == -1 || index == ancestor.length;
+		return true;
 	}
 
 	public static Oid of(String oid, String... resolutions) {
 		Objects.requireNonNull(oid);
 
-		String namespace;
-		List<PathComponent> path = new ArrayList<>();
-		Range<Integer> indexSelection = null;
-		Range<Long> timestampSelection = null;
-
-		// Determine namespace
-		var components = oid.split(":");
-		if (components.length == 1) {
-			namespace = DEFAULT_NAMESPACE;
-		} else if (components.length == 2) {
-			namespace = components[0];
-
-			// Remove namespace
-			oid = components[1];
-		} else {
-			throw new IllegalArgumentException("Invalid namespace");
+		var parsed = PARSE_CACHE.getIfPresent(oid);
+		if (parsed == null) {
+			parsed = parse(oid);
+			PARSE_CACHE.put(oid, parsed);
 		}
 
-		// Validate namespace
-		if (namespace == null || !NAMESPACE_VALIDATOR.test(namespace)) {
-			throw new IllegalArgumentException("Illegal namespace: " + namespace);
+		if (resolutions.length == 0) {
+			return parsed;
 		}
+		return parsed.resolve(resolutions);
+	}
 
-		for (var element : oid.split("/")) {
-			path.add(PathComponent.of(element));
-		}
+	/**
+	 * Parse an OID string in a single pass.
+	 */
+	private static Oid parse(String oid) {
+		int start = 0;
+		int end = oid.length();
 
-		// Perform resolutions
-		int i = 0;
-		for (var r : resolutions) {
-			for (; i < path.size(); i++) {
-				if (path.get(i).hasId()) {
-					path.set(i, path.get(i).resolve(r));
-					break;
+		// Determine namespace
+		String namespace = DEFAULT_NAMESPACE;
+		int colon = oid.indexOf(':');
+		if (colon != -1) {
+			if (colon == 0 || oid.indexOf(':', colon + 1) != -1) {
+				throw new IllegalArgumentException("Invalid namespace");
+			}
+			for (int i = 0; i < colon; i++) {
+				char c = oid.charAt(i);
+				if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.')) {
+					throw new IllegalArgumentException("Illegal namespace: " + oid.substring(0, colon));
 				}
 			}
+
+			// Avoid allocating a copy of the default namespace
+			if (colon != DEFAULT_NAMESPACE.length() || !oid.startsWith(DEFAULT_NAMESPACE)) {
+				namespace = oid.substring(0, colon);
+			}
+			start = colon + 1;
 		}
 
 		// Parse selector at end
-		if (path.length > 0) {
-			String last = path[path.length - 1];
-			if (last.endsWith("]")) {
-				int s = last.lastIndexOf('[');
-				if (s == -1) {
-					throw new IllegalArgumentException("Expected range selector '['");
-				}
-				var range = last.substring(s);
-				if (range.isBlank()) {
-					throw new IllegalArgumentException("Empty range selector");
+		Range<Integer> indexSelection = null;
+		Range<Long> timestampSelection = null;
+		if (end > start && oid.charAt(end - 1) == ']') {
+			int s = oid.lastIndexOf('[', end - 1);
+			if (s < start) {
+				throw new IllegalArgumentException("Expected range selector '['");
+			}
+
+			int first = s + 1;
+			int last = end - 1;
+			if (first == last) {
+				throw new IllegalArgumentException("Empty range selector");
+			}
+
+			int comma = indexOf(oid, ',', first, last);
+			int dash = indexOf(oid, '-', first, last);
+			if (comma != -1) {
+				if (indexOf(oid, ',', comma + 1, last) != -1) {
+					throw new IllegalArgumentException("Invalid index selector: " + oid.substring(first, last));
 				}
 
-				// Remove selector from path
-				path[path.length - 1] = last.substring(0, s);
-
-				if (range.contains(",")) {
-					var parts = range.split(",");
-					if (parts.length != 2) {
-						throw new IllegalArgumentException();
-					}
-
-					Integer left;
-					Integer right;
-
-					if (parts[0].equals("[")) {
-						left = Integer.parseInt(parts[0].substring(0, parts[0].length() - 1));
-					}
-					if (parts[1].equals("]")) {
-						right = Integer.parseInt(parts[1].substring(0, parts[1].length() - 1));
-					}
-
-					if (left == null && right == null) {
-						indexSelection = Range.all();
-					} else if (left != null) {
-						indexSelection = Range.atLeast(left);
-					} else if (right != null) {
-						indexSelection = Range.atMost(left);
-					} else {
-						indexSelection = Range.closed(left, right);
-					}
-
-				} else if (range.contains("-")) {
-					var parts = range.split("-");
-					if (parts.length != 2) {
-						throw new IllegalArgumentException();
-					}
-
-					Long left;
-					Long right;
-
-					if (parts[0].equals("[")) {
-						left = Long.parseLong(parts[0].substring(0, parts[0].length() - 1));
-					}
-					if (parts[1].equals("]")) {
-						right = Long.parseLong(parts[1].substring(0, parts[1].length() - 1));
-					}
-
-					if (left == null && right == null) {
-						timestampSelection = Range.all();
-					} else if (left != null) {
-						timestampSelection = Range.atLeast(left);
-					} else if (right != null) {
-						timestampSelection = Range.atMost(left);
-					} else {
-						timestampSelection = Range.closed(left, right);
-					}
-
-				} else {
-					throw new IllegalArgumentException();
+				indexSelection = range(comma == first ? null : Integer.parseInt(oid, first, comma, 10),
+						comma + 1 == last ? null : Integer.parseInt(oid, comma + 1, last, 10));
+			} else if (dash != -1) {
+				if (indexOf(oid, '-', dash + 1, last) != -1) {
+					throw new IllegalArgumentException("Invalid timestamp selector: " + oid.substring(first, last));
 				}
+
+				timestampSelection = range(dash == first ? null : Long.parseLong(oid, first, dash, 10),
+						dash + 1 == last ? null : Long.parseLong(oid, dash + 1, last, 10));
+			} else {
+				indexSelection = Range.singleton(Integer.parseInt(oid, first, last, 10));
 			}
+
+			// Remove selector from path
+			end = s;
 		}
 
-		return new Oid(namespace, path.toArray(PathComponent[]::new), indexSelection, timestampSelection);
+		return new Oid(namespace, parsePath(oid, start, end), indexSelection, timestampSelection);
+	}
+
+	/**
+	 * Parse the path components in the given region, skipping empty components.
+	 */
+	private static PathComponent[] parsePath(String path, int start, int end) {
+
+		// Count components first so the array is allocated exactly once
+		int count = 0;
+		for (int i = start; i < end;) {
+			int next = indexOf(path, '/', i, end);
+			if (next == -1)
+				next = end;
+			if (next > i)
+				count++;
+			i = next + 1;
+		}
+
+		var components = new PathComponent[count];
+		count = 0;
+		for (int i = start; i < end;) {
+			int next = indexOf(path, '/', i, end);
+			if (next == -1)
+				next = end;
+			if (next > i)
+				components[count++] = component(path, i, next);
+			i = next + 1;
+		}
+		return components;
+	}
+
+	/**
+	 * Parse a single path component like "element", "element()", or
+	 * "element(id)".
+	 */
+	private static PathComponent component(String path, int start, int end) {
+		if (end > start && path.charAt(end - 1) == ')') {
+			int paren = indexOf(path, '(', start, end);
+			if (paren != -1) {
+				var id = paren + 1 == end - 1 ? null : path.substring(paren + 1, end - 1);
+				return new PathComponent(path.substring(start, paren), id, true);
+			}
+		}
+
+		return new PathComponent(path.substring(start, end), null, false);
+	}
+
+	/**
+	 * Find a character within the given region of a string.
+	 */
+	private static int indexOf(String string, char c, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (string.charAt(i) == c)
+				return i;
+		}
+		return -1;
+	}
+
+	private static void checkElement(String element, int start, int end) {
+		if (start == end) {
+			throw new IllegalArgumentException("Empty path element");
+		}
+		for (int i = start; i < end; i++) {
+			char c = element.charAt(i);
+			if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-'
+					|| c == '*')) {
+				throw new IllegalArgumentException("Illegal path element: " + element);
+			}
+		}
+	}
+
+	/**
+	 * Build a range from the given optional endpoints.
+	 */
+	private static <C extends Comparable<C>> Range<C> range(C left, C right) {
+		if (left == null && right == null) {
+			return Range.all();
+		} else if (right == null) {
+			return Range.atLeast(left);
+		} else if (left == null) {
+			return Range.atMost(right);
+		} else {
+			return Range.closed(left, right);
+		}
 	}
 
 	public Oid child(String id) {
-		String[] childPath = Arrays.copyOf(path, path.length + 1);
-		childPath[childPath.length - 1] = id;
-		return new Oid(namespace, childPath, indexSelection, timestampSelection);
+		PathComponent[] childPath = Arrays.copyOf(path, path.length + 1);
+		childPath[childPath.length - 1] = PathComponent.of(id);
+		return new Oid(namespace, childPath, node.child(childPath[childPath.length - 1].element()), indexSelection,
+				timestampSelection);
 	}
 
 	public String first() {
@@ -271,7 +362,7 @@ public record Oid(
 	public boolean isAncestorOf(Oid descendant) {
 		Objects.requireNonNull(descendant);
 
-		return isAncestorOf(descendant.path);
+		return checkRelationship(this, descendant);
 	}
 
 	/**
@@ -283,7 +374,8 @@ public record Oid(
 	public boolean isAncestorOf(String[] descendant) {
 		Objects.requireNonNull(descendant);
 
-		return checkRelationship(this.path, descendant);
+		return checkRelationship(this.path, Arrays.stream(descendant).map(PathComponent::of)
+				.toArray(PathComponent[]::new));
 	}
 
 	/**
@@ -306,7 +398,7 @@ public record Oid(
 	public boolean isDescendantOf(Oid ancestor) {
 		Objects.requireNonNull(ancestor);
 
-		return isDescendantOf(ancestor.path);
+		return checkRelationship(ancestor, this);
 	}
 
 	/**
@@ -318,7 +410,8 @@ public record Oid(
 	public boolean isDescendantOf(String[] ancestor) {
 		Objects.requireNonNull(ancestor);
 
-		return checkRelationship(ancestor, this.path);
+		return checkRelationship(Arrays.stream(ancestor).map(PathComponent::of).toArray(PathComponent[]::new),
+				this.path);
 	}
 
 	public String last() {
@@ -334,8 +427,9 @@ public record Oid(
 	}
 
 	public Oid relative(String path) {
-		return new Oid(namespace, ObjectArrays.concat(this.path, path.split("/"), String.class), indexSelection,
-				timestampSelection);
+		var relative = parsePath(path, 0, path.length());
+		return new Oid(namespace, ObjectArrays.concat(this.path, relative, PathComponent.class),
+				node.descendant(relative), indexSelection, timestampSelection);
 	}
 
 	public Oid resolve(String... resolutions) {
@@ -346,13 +440,14 @@ public record Oid(
 		for (var r : resolutions) {
 			for (; i < path.length; i++) {
 				if (path[i].hasId() && path[i].id() == null) {
-					path[i++] = new PathComponent(path[i].element(), r, true);
+					path[i] = path[i].resolve(r);
+					i++;
 					break;
 				}
 			}
 		}
 
-		return new Oid(namespace, path, indexSelection, timestampSelection);
+		return new Oid(namespace, path, node, indexSelection, timestampSelection);
 	}
 
 	public Oid resolveLast(String... resolutions) {
@@ -361,32 +456,79 @@ public record Oid(
 
 		int i = path.length - 1;
 		for (var r : Lists.reverse(Arrays.asList(resolutions))) {
-			for (; i > 0; i--) {
+			for (; i >= 0; i--) {
 				if (path[i].hasId() && path[i].id() == null) {
-					path[i++] = new PathComponent(path[i].element(), r, true);
+					path[i] = path[i].resolve(r);
+					i--;
 					break;
 				}
 			}
 		}
 
-		return new Oid(namespace, path, indexSelection, timestampSelection);
+		return new Oid(namespace, path, node, indexSelection, timestampSelection);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj instanceof Oid other) {
+			return node == other.node && hashCode() == other.hashCode() && namespace.equals(other.namespace)
+					&& Arrays.equals(path, other.path) && Objects.equals(indexSelection, other.indexSelection)
+					&& Objects.equals(timestampSelection, other.timestampSelection);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = Objects.hash(namespace, Arrays.hashCode(path), indexSelection, timestampSelection);
+			hash = h;
+		}
+		return h;
 	}
 
 	@Override
 	public String toString() {
-		var string = new StringBuilder(namespace);
-		string.append(":");
+		// Benign race: the string is immutable and always computed the same way
+		var cached = this.string;
+		if (cached != null)
+			return cached;
+
+		var buffer = new StringBuilder(namespace);
+		buffer.append(":");
 
 		for (int i = 0; i < path.length; i++) {
-			string.append("/");
-			string.append(path[i].element());
+			buffer.append("/");
+			buffer.append(path[i].element());
 			if (path[i].hasId()) {
-				string.append("(");
-				string.append(path[i].id());
-				string.append(")");
+				buffer.append("(");
+				if (path[i].id() != null)
+					buffer.append(path[i].id());
+				buffer.append(")");
 			}
 		}
 
-		return string.toString();
+		if (indexSelection != null) {
+			buffer.append("[");
+			if (indexSelection.hasLowerBound())
+				buffer.append(indexSelection.lowerEndpoint());
+			buffer.append(",");
+			if (indexSelection.hasUpperBound())
+				buffer.append(indexSelection.upperEndpoint());
+			buffer.append("]");
+		} else if (timestampSelection != null) {
+			buffer.append("[");
+			if (timestampSelection.hasLowerBound())
+				buffer.append(timestampSelection.lowerEndpoint());
+			buffer.append("-");
+			if (timestampSelection.hasUpperBound())
+				buffer.append(timestampSelection.upperEndpoint());
+			buffer.append("]");
+		}
+
+		return this.string = buffer.toString();
 	}
 }
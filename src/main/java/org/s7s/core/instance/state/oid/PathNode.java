@@ -0,0 +1,100 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.oid;
+
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * A node in the global trie of OID path elements. Every distinct sequence of
+ * path elements corresponds to exactly one {@link PathNode}, so two OIDs have
+ * the same structure if and only if they share a node.
+ *
+ * <p>
+ * Children are held weakly and are discarded once no {@link Oid} refers to
+ * them (or to any of their descendants).
+ */
+final class PathNode {
+
+	/**
+	 * The root node which corresponds to the empty path.
+	 */
+	static final PathNode ROOT = new PathNode(null, null);
+
+	private final ConcurrentMap<String, PathNode> children = new MapMaker().weakValues().makeMap();
+
+	/**
+	 * The number of elements between this node and the root.
+	 */
+	final int depth;
+
+	final String element;
+
+	/**
+	 * Whether this node or any of its ancestors is a wildcard.
+	 */
+	final boolean generic;
+
+	final PathNode parent;
+
+	private PathNode(PathNode parent, String element) {
+		this.parent = parent;
+		this.element = element;
+		this.depth = parent == null ? 0 : parent.depth + 1;
+		this.generic = element != null && (element.equals("*") || parent.generic);
+	}
+
+	/**
+	 * Get the ancestor of this node at the given depth.
+	 *
+	 * @param depth The depth of the ancestor which must not exceed this node's
+	 *              depth
+	 * @return The ancestor
+	 */
+	PathNode ancestor(int depth) {
+		var node = this;
+		while (node.depth > depth) {
+			node = node.parent;
+		}
+		return node;
+	}
+
+	/**
+	 * Get or create the child node with the given element.
+	 *
+	 * @param element The child element
+	 * @return The canonical child node
+	 */
+	PathNode child(String element) {
+		var child = children.get(element);
+		if (child == null) {
+			child = new PathNode(this, element);
+			var previous = children.putIfAbsent(element, child);
+			if (previous != null) {
+				return previous;
+			}
+		}
+		return child;
+	}
+
+	/**
+	 * Get or create the descendant node corresponding to the given path.
+	 *
+	 * @param path The path relative to this node
+	 * @return The canonical descendant node
+	 */
+	PathNode descendant(Oid.PathComponent[] path) {
+		var node = this;
+		for (var component : path) {
+			node = node.child(component.element());
+		}
+		return node;
+	}
+}
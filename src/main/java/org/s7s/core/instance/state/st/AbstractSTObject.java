@@ -10,10 +10,13 @@ package org.s7s.core.instance.state.st;
 
 import static org.s7s.core.instance.state.STStore.STStore;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.eventbus.EventBus;
+import org.s7s.core.instance.state.Listeners;
 import org.s7s.core.instance.state.oid.Oid;
 import org.s7s.core.instance.state.st.EphemeralAttribute.EphemeralAttributeValue;
 
@@ -22,94 +25,251 @@ public abstract class AbstractSTObject implements STObject {
 	private static final Logger log = LoggerFactory.getLogger(AbstractSTObject.class);
 
 	/**
-	 * The event bus that delivers change events. It is only initialized when a
-	 * listener is attached. If the bus does not exist, events will not be
-	 * generated.
+	 * A batch of changes being collected on the current thread.
+	 */
+	private static record Batch(AbstractSTObject root, List<STAttribute.ChangeEvent> changes) {
+
+		boolean contains(AbstractSTObject object) {
+			for (; object != null; object = object.parent) {
+				if (object == root)
+					return true;
+			}
+			return false;
+		}
+	}
+
+	private static final ThreadLocal<Batch> BATCH = new ThreadLocal<>();
+
+	/**
+	 * The listeners attached to this object or {@code null} if there are none.
+	 * The array is replaced rather than modified when listeners change.
 	 */
-	private EventBus bus;
+	private volatile Object[] listeners;
 
 	private final String id;
 
 	/**
-	 * The number of listeners registered to the {@link #bus}.
+	 * The cached OID of this object. It's cleared when the object or one of its
+	 * ancestors is moved to a new parent.
 	 */
-	private int listeners;
+	private volatile Oid oid;
 
 	protected AbstractSTObject parent;
 
+	/**
+	 * The version at which this object was created.
+	 */
+	final long created;
+
 	public AbstractSTObject(STDocument parent, String id) {
 		this.parent = (AbstractSTObject) parent;
 		this.id = id;
+		this.created = STStore.nextVersion();
+	}
+
+	/**
+	 * Create an object that has the given OID but doesn't belong to any parent.
+	 *
+	 * @param oid The object's OID
+	 */
+	AbstractSTObject(Oid oid) {
+		this.id = oid.last();
+		this.oid = oid;
+		this.created = STStore.nextVersion();
 	}
 
 	@Override
 	public synchronized void addListener(Object listener) {
-		if (bus == null) {
-			bus = new EventBus();
+		listeners = Listeners.add(listeners, listener);
+	}
+
+	/**
+	 * @return Whether this object has listeners of its own
+	 */
+	boolean hasOwnListeners() {
+		return listeners != null;
+	}
+
+	/**
+	 * Determine whether this object or any of its ancestors has a listener that
+	 * would receive events fired by this object.
+	 *
+	 * @return Whether events fired by this object would be delivered
+	 */
+	protected boolean hasListeners() {
+		for (var object = this; object != null; object = object.parent) {
+			if (object.listeners != null)
+				return true;
+		}
+		return STStore.hasSubscribers(oid());
+	}
+
+	/**
+	 * Deliver an event generated by this object to the listeners of this object,
+	 * its ancestors, and any matching subscribers in the store. No locks are
+	 * taken and only one task is submitted regardless of the number of
+	 * listeners.
+	 */
+	private void dispatch(Object event) {
+		List<Object[]> targets = null;
+		for (var object = this; object != null; object = object.parent) {
+			var l = object.listeners;
+			if (l != null) {
+				if (targets == null)
+					targets = new ArrayList<>(4);
+				targets.add(l);
+			}
 		}
-		bus.register(listener);
-		listeners++;
+
+		STStore.dispatch(oid(), event, targets);
 	}
 
-	protected synchronized void fireAttributeValueChangedEvent(STAttribute attribute, EphemeralAttributeValue oldValue,
+	/**
+	 * Deliver an event generated by this object only to listeners strictly below
+	 * the given ancestor.
+	 */
+	private void dispatchBelow(AbstractSTObject ancestor, Object event) {
+		List<Object[]> targets = null;
+		for (var object = this; object != null && object != ancestor; object = object.parent) {
+			var l = object.listeners;
+			if (l != null) {
+				if (targets == null)
+					targets = new ArrayList<>(4);
+				targets.add(l);
+			}
+		}
+
+		STStore.dispatch(oid(), event, targets, ancestor.oid().path().length);
+	}
+
+	/**
+	 * Run the given updates while holding this object's lock and collect the
+	 * resulting attribute changes into a single {@link STDocument.BatchEvent}.
+	 * Listeners on this object and its ancestors receive only the batch event,
+	 * while listeners below this object still receive individual change events.
+	 *
+	 * <p>
+	 * A batch is not a transaction. Batches on the same object are serialized,
+	 * and subclasses may hold the locks of the attributes involved so that
+	 * direct reads wait for the batch to complete. Each update still gets its own
+	 * version, so a view may capture part of a batch. If the updates throw, the
+	 * changes applied before the failure are kept and still dispatched.
+	 *
+	 * @param updates The updates to apply
+	 */
+	protected void batch(Runnable updates) {
+
+		// Nested batches are merged into the outermost one
+		if (BATCH.get() != null) {
+			updates.run();
+			return;
+		}
+
+		var batch = new Batch(this, new ArrayList<>());
+		BATCH.set(batch);
+		try {
+			synchronized (this) {
+				updates.run();
+			}
+		} finally {
+			BATCH.remove();
+			flush(batch);
+		}
+	}
+
+	private void flush(Batch batch) {
+		if (batch.changes.isEmpty())
+			return;
+
+		for (var change : batch.changes) {
+			if (change.attribute() instanceof AbstractSTObject attribute) {
+				attribute.dispatchBelow(this, change);
+			}
+		}
+		dispatch(new STDocument.BatchEvent((STDocument) this, List.copyOf(batch.changes)));
+	}
+
+	protected void fireAttributeValueChangedEvent(STAttribute attribute, EphemeralAttributeValue oldValue,
 			EphemeralAttributeValue newValue) {
 
-		if (log.isTraceEnabled() && attribute == this) {
+		if (log.isTraceEnabled()) {
 			log.trace("Attribute ({}) changed value from \"{}\" to \"{}\"", attribute.oid(), oldValue, newValue);
 		}
 
-		if (bus != null) {
-			STStore.pool().submit(() -> {
-				bus.post(new STAttribute.ChangeEvent(attribute, oldValue, newValue));
-			});
-		}
+		if (hasListeners()) {
+			var event = new STAttribute.ChangeEvent(attribute, newValue, oldValue);
 
-		if (parent != null)
-			parent.fireAttributeValueChangedEvent(attribute, oldValue, newValue);
+			var batch = BATCH.get();
+			if (batch != null && batch.contains(this)) {
+				batch.changes.add(event);
+			} else {
+				dispatch(event);
+			}
+		}
 	}
 
-	protected synchronized void fireDocumentAddedEvent(STDocument document, STDocument newDocument) {
+	protected void fireDocumentAddedEvent(STDocument document, STDocument newDocument) {
 
-		if (log.isTraceEnabled() && document == this) {
+		if (log.isTraceEnabled()) {
 			log.trace("Document ({}) added to document ({})", newDocument.oid().last(), document.oid());
 		}
 
-		if (bus != null) {
-			STStore.pool().submit(() -> {
-				bus.post(new STDocument.DocumentAddedEvent(document, newDocument));
-			});
+		if (hasListeners()) {
+			dispatch(new STDocument.DocumentAddedEvent(document, newDocument));
 		}
-
-		if (parent != null)
-			parent.fireDocumentAddedEvent(document, newDocument);
 	}
 
-	protected synchronized void fireDocumentRemovedEvent(STDocument document, STDocument oldDocument) {
+	protected void fireDocumentRemovedEvent(STDocument document, STDocument oldDocument) {
 
-		if (log.isTraceEnabled() && document == this) {
+		if (log.isTraceEnabled()) {
 			log.trace("Document ({}) removed from document ({})", oldDocument.oid().last(), document.oid());
 		}
 
-		if (bus != null) {
-			STStore.pool().submit(() -> {
-				bus.post(new STDocument.DocumentRemovedEvent(document, oldDocument));
-			});
+		if (hasListeners()) {
+			dispatch(new STDocument.DocumentRemovedEvent(document, oldDocument));
 		}
+	}
 
-		if (parent != null)
-			parent.fireDocumentRemovedEvent(document, oldDocument);
+	/**
+	 * @return The object's identifier within its parent
+	 */
+	String id() {
+		return id;
 	}
 
 	@Override
 	public Oid oid() {
-		if (parent == null) {
-			if (id == null) {
-				return Oid.of("/");
+		var oid = this.oid;
+		if (oid == null) {
+			if (parent == null) {
+				oid = id == null ? Oid.of("/") : Oid.of("/").child(id);
 			} else {
-				return Oid.of("/").child(id);
+				oid = parent.oid().child(id);
 			}
+			this.oid = oid;
 		}
-		return parent.oid().child(id);
+		return oid;
+	}
+
+	/**
+	 * Report a change in this object's estimated size to the document that
+	 * accounts for it.
+	 *
+	 * @param bytes The change in retained bytes
+	 * @param nodes The change in node count
+	 */
+	void resize(long bytes, long nodes) {
+		var parent = this.parent;
+		if (parent != null) {
+			parent.resize(bytes, nodes);
+		}
+	}
+
+	/**
+	 * Discard the cached OID of this object and all of its descendants.
+	 */
+	void invalidateOid() {
+		oid = null;
 	}
 
 	@Override
@@ -119,17 +279,12 @@ public abstract class AbstractSTObject implements STObject {
 
 	@Override
 	public synchronized void removeListener(Object listener) {
-		if (bus != null) {
-			bus.unregister(listener);
-			listeners--;
-		}
-		if (listeners == 0) {
-			bus = null;
-		}
+		listeners = Listeners.remove(listeners, listener);
 	}
 
 	@Override
 	public void replaceParent(STDocument parent) {
 		this.parent = (AbstractSTObject) parent;
+		invalidateOid();
 	}
 }
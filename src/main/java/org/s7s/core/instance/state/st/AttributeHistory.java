@@ -0,0 +1,190 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import org.s7s.core.instance.state.st.EphemeralAttribute.AttributeType;
+import org.s7s.core.instance.state.st.EphemeralAttribute.EphemeralAttributeValue;
+import org.s7s.core.instance.state.st.STAttribute.RetentionPolicy;
+import org.s7s.core.protocol.Stream.EV_STStreamData;
+
+/**
+ * An {@link AttributeHistory} stores the historical values of an attribute in
+ * ascending timestamp order. The history is itself a read-only {@link List},
+ * but it's modified by its attribute, so it's only handed out through a
+ * {@link HistoryView}.
+ */
+abstract class AttributeHistory extends AbstractList<EphemeralAttributeValue> implements RandomAccess {
+
+	/**
+	 * The estimated heap cost of one history entry excluding its value.
+	 */
+	static final long ENTRY_SIZE = 32;
+
+	/**
+	 * Append a value to the end of the history. Values are expected to arrive in
+	 * timestamp order.
+	 *
+	 * @param value The value to append
+	 */
+	abstract void append(EphemeralAttributeValue value);
+
+	/**
+	 * Append a primitive value to the end of the history.
+	 *
+	 * @param timestamp The value's timestamp
+	 * @param bits      The value's bits
+	 * @param type      The value's type
+	 */
+	void append(long timestamp, long bits, AttributeType type) {
+		append(new EphemeralAttributeValue(timestamp, type.fromBits(bits)));
+	}
+
+	/**
+	 * Serialize the value at the given index.
+	 *
+	 * @param index The value index
+	 * @param type  The attribute's type
+	 * @return A new builder
+	 */
+	EV_STStreamData.Builder pack(int index, AttributeType type) {
+		return type.pack.apply(get(index));
+	}
+
+	/**
+	 * Estimate the heap retained by this history.
+	 *
+	 * @param valueSize The estimated size of a typical value
+	 * @return The estimated size in bytes
+	 */
+	long estimateSize(long valueSize) {
+		return size() * (ENTRY_SIZE + valueSize);
+	}
+
+	/**
+	 * Remove the given number of values from the beginning of the history.
+	 *
+	 * @param count The number of values to remove
+	 */
+	abstract void removeFirst(int count);
+
+	/**
+	 * Get the timestamp of the value at the given index without materializing it.
+	 *
+	 * @param index The value index
+	 * @return The value's timestamp
+	 */
+	abstract long timestamp(int index);
+
+	/**
+	 * Find the index of the first value whose timestamp is greater than or equal
+	 * to the given timestamp.
+	 *
+	 * @param timestamp The timestamp to search for
+	 * @return The index or {@link #size()} if there's no such value
+	 */
+	int ceiling(long timestamp) {
+		int low = 0;
+		int high = size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (timestamp(mid) < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Find the index of the first value whose timestamp is strictly greater than
+	 * the given timestamp.
+	 */
+	private int after(long timestamp) {
+		return timestamp == Long.MAX_VALUE ? size() : ceiling(timestamp + 1);
+	}
+
+	/**
+	 * Get a view of the values that match the given selections. Timestamps are
+	 * searched without materializing values.
+	 *
+	 * @param indexSelection     A range of history indices or {@code null}
+	 * @param timestampSelection A range of timestamps or {@code null}
+	 * @return A view which is only valid until the history is modified
+	 */
+	List<EphemeralAttributeValue> select(Range<Integer> indexSelection, Range<Long> timestampSelection) {
+		int from = 0;
+		int to = size();
+
+		if (indexSelection != null) {
+			if (indexSelection.hasLowerBound()) {
+				from = Math.max(from, indexSelection.lowerEndpoint()
+						+ (indexSelection.lowerBoundType() == BoundType.OPEN ? 1 : 0));
+			}
+			if (indexSelection.hasUpperBound()) {
+				to = Math.min(to, indexSelection.upperEndpoint()
+						+ (indexSelection.upperBoundType() == BoundType.CLOSED ? 1 : 0));
+			}
+		}
+
+		if (timestampSelection != null) {
+			if (timestampSelection.hasLowerBound()) {
+				long lower = timestampSelection.lowerEndpoint();
+				from = Math.max(from,
+						timestampSelection.lowerBoundType() == BoundType.OPEN ? after(lower) : ceiling(lower));
+			}
+			if (timestampSelection.hasUpperBound()) {
+				long upper = timestampSelection.upperEndpoint();
+				to = Math.min(to,
+						timestampSelection.upperBoundType() == BoundType.CLOSED ? after(upper) : ceiling(upper));
+			}
+		}
+
+		if (from >= to)
+			return List.of();
+
+		return subList(from, to);
+	}
+
+	/**
+	 * Release any resources held outside of the heap. The history must not be
+	 * used afterwards.
+	 */
+	void close() {
+	}
+
+	/**
+	 * Remove all values that violate the given retention policy.
+	 *
+	 * @param policy The retention policy
+	 * @param limit  The retention limit
+	 * @param now    The timestamp against which time limits are evaluated
+	 */
+	void retain(RetentionPolicy policy, long limit, long now) {
+		switch (policy) {
+		case ITEM_LIMITED:
+			if (size() > limit) {
+				removeFirst((int) (size() - limit));
+			}
+			break;
+		case TIME_LIMITED:
+			removeFirst(ceiling(now - limit));
+			break;
+		case UNLIMITED:
+			// Do nothing
+			break;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A {@link ChildMap} holds the children of a document keyed by ID. Most
+ * documents only have a handful of children, so the entries are kept inline in
+ * a small copy-on-write array until the map grows past
+ * {@link #PROMOTE_THRESHOLD}, at which point it's promoted to a
+ * {@link ConcurrentHashMap}. Nothing is allocated until the first child is
+ * added.
+ *
+ * <p>
+ * Reads never block. Writes to the inline array are serialized on the map
+ * itself; writes to a promoted map go straight to the {@link ConcurrentHashMap}.
+ *
+ * @param <V> The child type
+ */
+final class ChildMap<V> {
+
+	/**
+	 * The number of entries beyond which the inline array is promoted to a hash
+	 * table.
+	 */
+	static final int PROMOTE_THRESHOLD = 16;
+
+	/**
+	 * Either {@code null}, an array of alternating keys and values, or a
+	 * {@link ConcurrentHashMap}. A promoted map is never demoted.
+	 */
+	private volatile Object table;
+
+	@SuppressWarnings("unchecked")
+	V get(String key) {
+		var t = table;
+		if (t == null) {
+			return null;
+		}
+		if (t instanceof Object[] entries) {
+			for (int i = 0; i < entries.length; i += 2) {
+				if (key.equals(entries[i])) {
+					return (V) entries[i + 1];
+				}
+			}
+			return null;
+		}
+		return ((Map<String, V>) t).get(key);
+	}
+
+	/**
+	 * Get the child with the given key or create it with the given factory if it
+	 * doesn't exist. The factory may be called concurrently by racing threads, but
+	 * only one result is ever inserted.
+	 *
+	 * @param key     The child key
+	 * @param factory The child factory
+	 * @return The existing or new child
+	 */
+	V computeIfAbsent(String key, Function<String, V> factory) {
+		var value = get(key);
+		if (value != null) {
+			return value;
+		}
+
+		value = factory.apply(key);
+		var previous = putIfAbsent(key, value);
+		return previous != null ? previous : value;
+	}
+
+	V put(String key, V value) {
+		return write(key, value, false);
+	}
+
+	V putIfAbsent(String key, V value) {
+		return write(key, value, true);
+	}
+
+	@SuppressWarnings("unchecked")
+	private V write(String key, V value, boolean onlyIfAbsent) {
+		if (table instanceof ConcurrentHashMap map) {
+			return onlyIfAbsent ? (V) map.putIfAbsent(key, value) : (V) map.put(key, value);
+		}
+
+		synchronized (this) {
+			var t = table;
+			if (t instanceof ConcurrentHashMap map) {
+				return onlyIfAbsent ? (V) map.putIfAbsent(key, value) : (V) map.put(key, value);
+			}
+
+			var entries = (Object[]) t;
+			if (entries == null) {
+				table = new Object[] { key, value };
+				return null;
+			}
+
+			for (int i = 0; i < entries.length; i += 2) {
+				if (key.equals(entries[i])) {
+					var previous = (V) entries[i + 1];
+					if (!onlyIfAbsent) {
+						var copy = entries.clone();
+						copy[i + 1] = value;
+						table = copy;
+					}
+					return previous;
+				}
+			}
+
+			if (entries.length / 2 >= PROMOTE_THRESHOLD) {
+				var map = new ConcurrentHashMap<String, V>(PROMOTE_THRESHOLD * 2);
+				for (int i = 0; i < entries.length; i += 2) {
+					map.put((String) entries[i], (V) entries[i + 1]);
+				}
+				map.put(key, value);
+				table = map;
+			} else {
+				var copy = Arrays.copyOf(entries, entries.length + 2);
+				copy[entries.length] = key;
+				copy[entries.length + 1] = value;
+				table = copy;
+			}
+			return null;
+		}
+	}
+
+	V remove(String key) {
+		return delete(key, null);
+	}
+
+	boolean remove(String key, V value) {
+		return delete(key, value) != null;
+	}
+
+	/**
+	 * Remove the entry with the given key if its value is the expected value (or
+	 * any value if the expected value is {@code null}).
+	 */
+	@SuppressWarnings("unchecked")
+	private V delete(String key, V expected) {
+		if (table instanceof ConcurrentHashMap map) {
+			if (expected == null) {
+				return (V) map.remove(key);
+			}
+			return map.remove(key, expected) ? expected : null;
+		}
+
+		synchronized (this) {
+			var t = table;
+			if (t instanceof ConcurrentHashMap map) {
+				if (expected == null) {
+					return (V) map.remove(key);
+				}
+				return map.remove(key, expected) ? expected : null;
+			}
+
+			var entries = (Object[]) t;
+			if (entries == null) {
+				return null;
+			}
+
+			for (int i = 0; i < entries.length; i += 2) {
+				if (key.equals(entries[i])) {
+					var previous = (V) entries[i + 1];
+					if (expected != null && !expected.equals(previous)) {
+						return null;
+					}
+
+					if (entries.length == 2) {
+						table = null;
+					} else {
+						var copy = new Object[entries.length - 2];
+						System.arraycopy(entries, 0, copy, 0, i);
+						System.arraycopy(entries, i + 2, copy, i, entries.length - i - 2);
+						table = copy;
+					}
+					return previous;
+				}
+			}
+			return null;
+		}
+	}
+
+	int size() {
+		var t = table;
+		if (t == null) {
+			return 0;
+		}
+		if (t instanceof Object[] entries) {
+			return entries.length / 2;
+		}
+		return ((Map<?, ?>) t).size();
+	}
+
+	@SuppressWarnings("unchecked")
+	void forEach(Consumer<? super V> consumer) {
+		var t = table;
+		if (t == null) {
+			return;
+		}
+		if (t instanceof Object[] entries) {
+			for (int i = 1; i < entries.length; i += 2) {
+				consumer.accept((V) entries[i]);
+			}
+			return;
+		}
+		((Map<String, V>) t).values().forEach(consumer);
+	}
+}
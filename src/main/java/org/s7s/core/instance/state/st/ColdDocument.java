@@ -0,0 +1,232 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.s7s.core.instance.state.oid.Oid;
+import org.s7s.core.instance.state.oid.Oid.PathComponent;
+import org.s7s.core.protocol.Stream.EV_STStreamData;
+
+/**
+ * A lightweight stand-in for an {@link EphemeralDocument} that was evicted to
+ * the cold tier. Any access through the stub faults the document back into
+ * memory and is then delegated to it, except for {@link #snapshot} and
+ * {@link #peek} which read directly from disk.
+ */
+final class ColdDocument implements STDocument {
+
+	private final EphemeralDocument parent;
+
+	private final String id;
+
+	/**
+	 * The file containing the evicted document's snapshot.
+	 */
+	final Path file;
+
+	/**
+	 * The evicted document which can be reinstated as long as it hasn't been
+	 * collected.
+	 */
+	final WeakReference<EphemeralDocument> evicted;
+
+	ColdDocument(EphemeralDocument parent, EphemeralDocument document, Path file) {
+		this.parent = parent;
+		this.id = document.id();
+		this.file = file;
+		this.evicted = new WeakReference<>(document);
+	}
+
+	String id() {
+		return id;
+	}
+
+	/**
+	 * Read the evicted document's snapshot from disk.
+	 *
+	 * @param consumer The consumer of each record which has an OID relative to the
+	 *                 evicted document
+	 */
+	void read(Consumer<EV_STStreamData> consumer) {
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			while (true) {
+				byte[] data;
+				try {
+					data = new byte[in.readInt()];
+					in.readFully(data);
+				} catch (EOFException e) {
+					break;
+				}
+				consumer.accept(EV_STStreamData.parseFrom(data));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private STDocument resident() {
+		return parent.thaw(this);
+	}
+
+	@Override
+	public void addListener(Object listener) {
+		resident().addListener(listener);
+	}
+
+	@Override
+	public STAttribute attribute(String id) {
+		return resident().attribute(id);
+	}
+
+	@Override
+	public int attributeCount() {
+		return resident().attributeCount();
+	}
+
+	@Override
+	public void batch(Consumer<STDocument> updates) {
+		resident().batch(updates);
+	}
+
+	@Override
+	public STDocument document(String id) {
+		return resident().document(id);
+	}
+
+	@Override
+	public int documentCount() {
+		return resident().documentCount();
+	}
+
+	@Override
+	public void forEachAttribute(Consumer<STAttribute> consumer) {
+		resident().forEachAttribute(consumer);
+	}
+
+	@Override
+	public void forEachDocument(Consumer<STDocument> consumer) {
+		resident().forEachDocument(consumer);
+	}
+
+	@Override
+	public STAttribute getAttribute(String id) {
+		return resident().getAttribute(id);
+	}
+
+	@Override
+	public STDocument getDocument(String id) {
+		return resident().getDocument(id);
+	}
+
+	@Override
+	public STAttribute peekAttribute(String id) {
+		return peek().peekAttribute(id);
+	}
+
+	@Override
+	public STDocument peekDocument(String id) {
+		return peek().peekDocument(id);
+	}
+
+	@Override
+	public STDocument peek() {
+		var document = evicted.get();
+		if (document != null)
+			return document;
+
+		// Serve from a detached copy so the stub stays cold
+		document = new EphemeralDocument(oid());
+		read(document::merge);
+		return document;
+	}
+
+	@Override
+	public void merge(EV_STStreamData snapshot) {
+		resident().merge(snapshot);
+	}
+
+	@Override
+	public Oid oid() {
+		return parent.oid().child(id);
+	}
+
+	@Override
+	public STDocument parent() {
+		return parent;
+	}
+
+	@Override
+	public void remove(STAttribute attribute) {
+		resident().remove(attribute);
+	}
+
+	@Override
+	public void remove(STDocument document) {
+		resident().remove(document);
+	}
+
+	@Override
+	public void remove(String id) {
+		resident().remove(id);
+	}
+
+	@Override
+	public void removeListener(Object listener) {
+		resident().removeListener(listener);
+	}
+
+	@Override
+	public void replaceParent(STDocument parent) {
+		resident().replaceParent(parent);
+	}
+
+	@Override
+	public void set(String id, STAttribute attribute) {
+		resident().set(id, attribute);
+	}
+
+	@Override
+	public void set(String id, STDocument document) {
+		resident().set(id, document);
+	}
+
+	@Override
+	public Stream<EV_STStreamData> snapshot(STSnapshotStruct config) {
+
+		// Records are relative to this document
+		var prefix = Arrays.stream(oid().path()).skip(config.oid.path().length).map(PathComponent::element)
+				.collect(Collectors.joining("/"));
+
+		List<EV_STStreamData> records = new ArrayList<>();
+		read(data -> {
+			records.add(prefix.isEmpty() ? data
+					: data.toBuilder().setOid(prefix + "/" + data.getOid()).build());
+		});
+		return records.stream();
+	}
+
+	@Override
+	public STView view() {
+		return resident().view();
+	}
+}
@@ -0,0 +1,179 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * A disk-backed tier for documents that haven't been accessed recently.
+ *
+ * <p>
+ * Documents registered with {@link EphemeralDocument#setColdTier(boolean)} have
+ * their children swept periodically. Children are evicted in least recently
+ * used order if they have been idle for longer than the idle window or if the
+ * retained size of the resident children exceeds the budget. Evicted children are
+ * replaced by a stub which faults them back in on the next access.
+ */
+public final class ColdTier implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(ColdTier.class);
+
+	private static record Candidate(EphemeralDocument parent, EphemeralDocument document, long accessed, long size) {
+	}
+
+	/**
+	 * The name of the subdirectory in which evicted documents are stored.
+	 */
+	private static final String SUBDIRECTORY = "cold";
+
+	/**
+	 * The names of the files written by {@link #file(STDocument)}.
+	 */
+	private static final Pattern FILE_NAME = Pattern.compile("[0-9a-f]{32}\\.cold");
+
+	private final Set<EphemeralDocument> collections = ConcurrentHashMap.newKeySet();
+
+	private final Path directory;
+
+	/**
+	 * The number of milliseconds after which an unused document is evicted.
+	 */
+	private final long idle;
+
+	/**
+	 * The maximum retained size in bytes of the resident children across all
+	 * collections or 0 for no limit.
+	 */
+	private final long budget;
+
+	private final ScheduledExecutorService sweeper;
+
+	/**
+	 * @param directory The directory under which evicted documents are stored in
+	 *                  a dedicated subdirectory
+	 * @param idle      The idle window in milliseconds
+	 * @param budget    The maximum retained size of resident documents in bytes or
+	 *                  0 for no limit
+	 */
+	public ColdTier(Path directory, long idle, long budget) {
+		if (idle <= 0)
+			throw new IllegalArgumentException("Invalid idle window: " + idle);
+		if (budget < 0)
+			throw new IllegalArgumentException("Invalid budget: " + budget);
+
+		this.directory = directory.resolve(SUBDIRECTORY);
+		this.idle = idle;
+		this.budget = budget;
+
+		try {
+			Files.createDirectories(this.directory);
+
+			// Stubs don't survive restarts, so old files are unreachable
+			try (var files = Files.list(this.directory)) {
+				for (var file : (Iterable<Path>) files::iterator) {
+					if (FILE_NAME.matcher(file.getFileName().toString()).matches())
+						Files.deleteIfExists(file);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			var thread = new Thread(r, "st.cold");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sweeper.scheduleWithFixedDelay(this::sweep, idle / 4 + 1, idle / 4 + 1, TimeUnit.MILLISECONDS);
+	}
+
+	void register(EphemeralDocument collection) {
+		collections.add(collection);
+	}
+
+	void unregister(EphemeralDocument collection) {
+		collections.remove(collection);
+	}
+
+	/**
+	 * Evict the documents that are idle or that exceed the budget.
+	 *
+	 * @return The number of documents evicted
+	 */
+	int sweep() {
+		var candidates = new ArrayList<Candidate>();
+		long[] resident = new long[1];
+
+		for (var collection : collections) {
+			collection.forEachDocument(child -> {
+				if (child instanceof EphemeralDocument document) {
+					long size = document.retainedSize();
+					resident[0] += size;
+
+					long accessed = document.lastAccess();
+					if (accessed >= 0)
+						candidates.add(new Candidate(collection, document, accessed, size));
+				}
+			});
+		}
+
+		// Least recently used first
+		candidates.sort(Comparator.comparingLong(Candidate::accessed));
+
+		long now = System.currentTimeMillis();
+		long excess = budget == 0 ? 0 : resident[0] - budget;
+		int evicted = 0;
+
+		for (var candidate : candidates) {
+			if (excess <= 0 && now - candidate.accessed < idle)
+				break;
+
+			try {
+				if (candidate.parent.evict(candidate.document, file(candidate.document))) {
+					evicted++;
+					excess -= candidate.size;
+				}
+			} catch (UncheckedIOException e) {
+				log.error("Failed to evict document: {}", candidate.document.oid(), e);
+			}
+		}
+
+		if (evicted > 0)
+			log.debug("Evicted {} documents to the cold tier", evicted);
+		return evicted;
+	}
+
+	private Path file(STDocument document) {
+		return directory.resolve(
+				Hashing.murmur3_128().hashString(document.oid().toString(), StandardCharsets.UTF_8).toString()
+						+ ".cold");
+	}
+
+	@Override
+	public void close() {
+		sweeper.shutdown();
+	}
+}
@@ -8,25 +8,34 @@
 //============================================================================//
 package org.s7s.core.instance.state.st;
 
+import static org.s7s.core.instance.state.STStore.STStore;
 import static org.s7s.core.protocol.Stream.EV_STStreamData.newBuilder;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Range;
+import com.google.common.hash.Hashing;
 import com.google.protobuf.UnsafeByteOperations;
 import org.s7s.core.foundation.Platform.OsType;
 import org.s7s.core.foundation.S7SCertificate;
 import org.s7s.core.foundation.Instance.InstanceFlavor;
 import org.s7s.core.foundation.Instance.InstanceType;
+import org.s7s.core.instance.state.Sampler;
+import org.s7s.core.instance.state.TimingWheel;
+import org.s7s.core.instance.state.oid.Oid.PathComponent;
 import org.s7s.core.protocol.Stream.EV_STStreamData;
 import org.s7s.core.protocol.Stream.EV_STStreamData.ValueType;
 
@@ -131,35 +140,259 @@ public class EphemeralAttribute extends AbstractSTObject implements STAttribute
 			this.unpack = unpack;
 			this.pack = pack;
 		}
+
+		/**
+		 * @return Whether values of this type can be stored unboxed in a {@code long}
+		 */
+		public boolean isPrimitive() {
+			switch (this) {
+			case BOOLEAN:
+			case INTEGER:
+			case LONG:
+				return true;
+			default:
+				return false;
+			}
+		}
+
+		/**
+		 * Pack an unboxed primitive value without allocating a wrapper.
+		 *
+		 * @param timestamp The value's timestamp
+		 * @param bits      The value as returned by {@link #toBits(Object)}
+		 * @return A new builder
+		 */
+		public EV_STStreamData.Builder packBits(long timestamp, long bits) {
+			switch (this) {
+			case BOOLEAN:
+				return newBuilder().setTimestamp(timestamp).setValueType(ValueType.BOOLEAN).setBoolean(bits != 0);
+			case INTEGER:
+				return newBuilder().setTimestamp(timestamp).setValueType(ValueType.INTEGER).setInteger((int) bits);
+			case LONG:
+				return newBuilder().setTimestamp(timestamp).setValueType(ValueType.LONG).setLong(bits);
+			default:
+				throw new UnsupportedOperationException(name());
+			}
+		}
+
+		/**
+		 * Unpack a primitive value without allocating a wrapper.
+		 *
+		 * @param proto The serialized value
+		 * @return The value's bits
+		 */
+		public long unpackBits(EV_STStreamData proto) {
+			switch (this) {
+			case BOOLEAN:
+				return proto.getBoolean() ? 1 : 0;
+			case INTEGER:
+				return proto.getInteger();
+			case LONG:
+				return proto.getLong();
+			default:
+				throw new UnsupportedOperationException(name());
+			}
+		}
+
+		/**
+		 * Box the given primitive value.
+		 */
+		public Object fromBits(long bits) {
+			switch (this) {
+			case BOOLEAN:
+				return bits != 0;
+			case INTEGER:
+				return (int) bits;
+			case LONG:
+				return bits;
+			default:
+				throw new UnsupportedOperationException(name());
+			}
+		}
+
+		/**
+		 * Unbox the given primitive value.
+		 */
+		public long toBits(Object value) {
+			switch (this) {
+			case BOOLEAN:
+				return ((Boolean) value) ? 1 : 0;
+			case INTEGER:
+				return (Integer) value;
+			case LONG:
+				return (Long) value;
+			default:
+				throw new UnsupportedOperationException(name());
+			}
+		}
 	}
 
 	public static record EphemeralAttributeValue(long timestamp, Object value) {
 	}
 
 	/**
-	 * The current value of the attribute.
+	 * A level of aggregation for the history of a numeric attribute.
+	 *
+	 * @param resolution The width of each bucket in milliseconds
+	 * @param retention  How long buckets are kept in this tier in milliseconds
+	 */
+	public static record RollupTier(long resolution, long retention) {
+		public RollupTier {
+			if (resolution <= 0)
+				throw new IllegalArgumentException("Invalid resolution: " + resolution);
+			if (retention < 0)
+				throw new IllegalArgumentException("Invalid retention: " + retention);
+		}
+	}
+
+	/**
+	 * An aggregated bucket of historical values.
+	 */
+	public static record RollupValue(long timestamp, long resolution, long min, long max, long average, long count) {
+	}
+
+	/**
+	 * A placeholder for {@link #value} which indicates that the current value is
+	 * primitive and stored unboxed in {@link #bits}.
+	 */
+	private static final Object PRIMITIVE = new Object();
+
+	/**
+	 * Canonical instances of string values. Attributes like hostnames and OS names
+	 * repeat across many profiles, so equal strings share one instance.
+	 */
+	private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
+	/**
+	 * The estimated heap cost of an attribute excluding its values and
+	 * {@link Extras}.
+	 */
+	static final long SIZE = 80;
+
+	/**
+	 * The timestamp of the current value.
+	 */
+	protected long timestamp;
+
+	/**
+	 * The current value of the attribute, {@link #PRIMITIVE}, an
+	 * {@link OffHeapValue}, or {@code null} if there is no current value.
 	 */
-	protected EphemeralAttributeValue current;
+	protected Object value;
 
 	/**
-	 * Historical values.
+	 * The current value of the attribute if its type is primitive.
 	 */
-	protected List<EphemeralAttributeValue> history;
+	protected long bits;
 
 	/**
-	 * A strategy that determines what happens to old values.
+	 * State that most attributes never use or {@code null} if all of it has
+	 * default values.
 	 */
-	protected RetentionPolicy retention;
+	private Extras extras;
 
 	/**
-	 * A quantifier for the retention policy.
+	 * The version at which the current value was set.
 	 */
-	protected long retentionLimit;
+	private long version = created;
 
 	/**
-	 * An optional supplier that overrides the current value.
+	 * Whether the current value was merged from a peer, in which case its
+	 * timestamp comes from the same clock as the peer's later values.
 	 */
-	protected Supplier<?> source;
+	private boolean merged;
+
+	/**
+	 * Rarely used attribute state. Keeping it out of line means that most
+	 * attributes consist of only a header, a parent pointer and the value.
+	 */
+	private static final class Extras {
+
+		/**
+		 * The estimated heap cost of this object.
+		 */
+		static final long SIZE = 72;
+
+		/**
+		 * Historical values.
+		 */
+		AttributeHistory history;
+
+		/**
+		 * A strategy that determines what happens to old values.
+		 */
+		RetentionPolicy retention;
+
+		/**
+		 * A quantifier for the retention policy.
+		 */
+		long retentionLimit;
+
+		/**
+		 * Aggregation tiers for values that fall out of the retention policy.
+		 */
+		RollupTier[] rollup;
+
+		/**
+		 * An optional supplier that overrides the current value.
+		 */
+		Supplier<?> source;
+
+		/**
+		 * Whether values that are equal to the current value should still replace
+		 * it.
+		 */
+		boolean recordUnchanged;
+
+		/**
+		 * Previous values that may still be visible to open views, newest first.
+		 */
+		Prior prior;
+
+		/**
+		 * The number of milliseconds without an update after which the value is
+		 * cleared or 0 if it never expires.
+		 */
+		long ttl;
+
+		/**
+		 * The local time of the last update, which the time-to-live is measured
+		 * from. Merged values carry the remote peer's timestamp, so that can't be
+		 * used.
+		 */
+		long updated;
+
+		/**
+		 * The pending expiry check.
+		 */
+		TimingWheel.Timeout expiry;
+
+		/**
+		 * The registration of a periodically polled supplier.
+		 */
+		Sampler.Sample sample;
+
+		boolean isEmpty() {
+			return history == null && retention == null && rollup == null && source == null && !recordUnchanged
+					&& prior == null && ttl == 0 && expiry == null && sample == null;
+		}
+	}
+
+	private static final class Prior {
+		private final long version;
+		private final long timestamp;
+		private final Object value;
+		private final long bits;
+		private Prior next;
+
+		private Prior(long version, long timestamp, Object value, long bits, Prior next) {
+			this.version = version;
+			this.timestamp = timestamp;
+			this.value = value;
+			this.bits = bits;
+			this.next = next;
+		}
+	}
 
 	protected AttributeType type;
 
@@ -167,31 +400,242 @@ public class EphemeralAttribute extends AbstractSTObject implements STAttribute
 		super(parent, id);
 	}
 
+	/**
+	 * Get the side object, creating it if necessary.
+	 */
+	private Extras extras() {
+		if (extras == null)
+			extras = new Extras();
+		return extras;
+	}
+
+	/**
+	 * Discard the side object if it no longer holds anything.
+	 */
+	private void trimExtras() {
+		if (extras != null && extras.isEmpty())
+			extras = null;
+	}
+
+	private AttributeHistory storedHistory() {
+		return extras == null ? null : extras.history;
+	}
+
+	private RetentionPolicy retention() {
+		return extras == null ? null : extras.retention;
+	}
+
+	private Supplier<?> source() {
+		return extras == null ? null : extras.source;
+	}
+
 	/**
 	 * Check the retention condition and remove all violating elements.
 	 */
 	private void checkRetention() {
-		if (retention == null)
+		if (extras == null || extras.retention == null || extras.history == null)
+			return;
+
+		extras.history.retain(extras.retention, extras.retentionLimit, timestamp);
+	}
+
+	/**
+	 * Create a new history container appropriate for the current retention policy
+	 * and move any existing values into it. A spilled history is kept as it is if
+	 * the policy still calls for one.
+	 */
+	private void resetHistory() {
+		if (extras == null)
+			return;
+
+		var retention = extras.retention;
+		var history = extras.history;
+		var rollup = extras.rollup;
+		if (retention == null) {
+			if (history != null)
+				history.close();
+			extras.history = null;
 			return;
+		}
+
+		boolean numeric = type == AttributeType.LONG || type == AttributeType.INTEGER;
+
+		AttributeHistory replacement;
+		if (type != null && STStore.spillDirectory() != null && (retention == RetentionPolicy.UNLIMITED
+				|| (retention == RetentionPolicy.TIME_LIMITED && !numeric))) {
+			if (history instanceof SpillHistory)
+				return;
+
+			replacement = new SpillHistory(STStore.spillDirectory().resolve(
+					Hashing.murmur3_128().hashString(oid().toString(), StandardCharsets.UTF_8).toString()), type,
+					STStore.spillWindow());
+		} else if (numeric) {
+			replacement = new NumericHistory(type, rollup == null ? new RollupTier[0] : rollup);
+		} else if (retention == RetentionPolicy.ITEM_LIMITED) {
+			replacement = new RingHistory((int) Math.max(1, Math.min(extras.retentionLimit, Integer.MAX_VALUE)));
+		} else {
+			replacement = new RingHistory();
+		}
+
+		if (history != null) {
+			history.forEach(replacement::append);
+			history.close();
+		}
+		extras.history = replacement;
+	}
+
+	/**
+	 * Get the value that was current at the given version.
+	 *
+	 * @param version The version
+	 * @return The value or {@code null} if the attribute had no value
+	 */
+	synchronized EphemeralAttributeValue valueAt(long version) {
+		if (created > version)
+			return null;
+		var source = source();
+		if (this.version <= version)
+			return source != null ? new EphemeralAttributeValue(System.currentTimeMillis(), source.get()) : current();
+
+		for (var p = extras == null ? null : extras.prior; p != null; p = p.next) {
+			if (p.version <= version) {
+				if (p.value == null)
+					return null;
+				if (p.value == PRIMITIVE)
+					return new EphemeralAttributeValue(p.timestamp, type.fromBits(p.bits));
+				return new EphemeralAttributeValue(p.timestamp, decode(p.value));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Estimate the heap retained by a stored value.
+	 */
+	private static long estimateValue(Object value) {
+		if (value == null || value == PRIMITIVE || value instanceof Enum)
+			return 0;
+		if (value instanceof String string)
+			return 40 + string.length();
+		if (value instanceof byte[] bytes)
+			return 16 + bytes.length;
+		if (value instanceof int[] ints)
+			return 16 + 4L * ints.length;
+		if (value instanceof Object[] array)
+			return 16 + 20L * array.length;
+		if (value instanceof OffHeapValue)
+			return 64;
+		if (value instanceof X509Certificate)
+			return 2048;
+		return 16;
+	}
+
+	/**
+	 * Estimate the heap retained by this attribute. The estimate is derived from
+	 * the attribute's state, so it doesn't need to be stored.
+	 *
+	 * @return The estimated size in bytes
+	 */
+	long estimateSize() {
+		long valueSize = estimateValue(value);
+		long size = SIZE + valueSize;
+		if (extras != null) {
+			size += Extras.SIZE;
+			if (extras.history != null)
+				size += extras.history.estimateSize(valueSize);
+		}
+		return size;
+	}
+
+	/**
+	 * Report any change in this attribute's estimated size to its parent.
+	 *
+	 * @param before The estimated size before the change
+	 */
+	private void account(long before) {
+		long delta = estimateSize() - before;
+		if (delta != 0) {
+			resize(delta, 0);
+		}
+	}
+
+	/**
+	 * Build a value object for the current value. Primitive values are boxed.
+	 *
+	 * @return The current value or {@code null}
+	 */
+	protected EphemeralAttributeValue current() {
+		if (value == null)
+			return null;
+		if (value == PRIMITIVE)
+			return new EphemeralAttributeValue(timestamp, type.fromBits(bits));
+
+		return new EphemeralAttributeValue(timestamp, decode(value));
+	}
 
-		if (history == null)
-			history = new ArrayList<>();
+	/**
+	 * Decode a stored value if it's off-heap.
+	 */
+	private Object decode(Object value) {
+		if (value instanceof OffHeapValue stored)
+			return stored.decode(type);
+
+		return value;
+	}
 
-		switch (retention) {
-		case ITEM_LIMITED:
-			while (history.size() > retentionLimit) {
-				history.remove(0);
+	/**
+	 * Prepare a new non-primitive value for storage by moving it off-heap if it's
+	 * large enough or interning it otherwise.
+	 */
+	private Object store(Object value) {
+		int threshold = STStore.offHeapThreshold();
+		if (threshold > 0) {
+			switch (type) {
+			case BYTES:
+				if (value instanceof byte[] bytes && bytes.length >= threshold)
+					return new OffHeapValue(ByteBuffer.wrap(bytes), null);
+				break;
+			case STRING:
+				// Each char is at least one byte when encoded
+				if (((String) value).length() >= threshold)
+					return new OffHeapValue(StandardCharsets.UTF_8.encode((String) value), value);
+				break;
+			case X509CERTIFICATE:
+				// Certificates are always kept encoded so they are never encoded again
+				try {
+					return new OffHeapValue(ByteBuffer.wrap(((X509Certificate) value).getEncoded()), value);
+				} catch (CertificateEncodingException e) {
+					throw new IllegalArgumentException(e);
+				}
+			default:
+				break;
 			}
-			break;
-		case TIME_LIMITED:
-			while (history.size() > 0 && history.get(0).timestamp() > (current.timestamp() - retentionLimit)) {
-				history.remove(0);
+		}
+		return intern(value);
+	}
+
+	/**
+	 * Prepare a serialized non-primitive value for storage. Large values are copied
+	 * off-heap without decoding them.
+	 */
+	private Object store(EV_STStreamData snapshot) {
+		int threshold = STStore.offHeapThreshold();
+		if (threshold > 0) {
+			switch (type) {
+			case BYTES:
+			case X509CERTIFICATE:
+				if (snapshot.getBytes().size() >= threshold || type == AttributeType.X509CERTIFICATE)
+					return new OffHeapValue(snapshot.getBytes().asReadOnlyByteBuffer(), null);
+				break;
+			case STRING:
+				if (snapshot.getStringBytes().size() >= threshold)
+					return new OffHeapValue(snapshot.getStringBytes().asReadOnlyByteBuffer(), null);
+				break;
+			default:
+				break;
 			}
-			break;
-		case UNLIMITED:
-			// Do nothing
-			break;
 		}
+		return intern(type.unpack.apply(snapshot).value());
 	}
 
 	private AttributeType findType(Object value) {
@@ -233,20 +677,63 @@ public class EphemeralAttribute extends AbstractSTObject implements STAttribute
 
 	@Override
 	public synchronized Object get() {
+		var source = source();
 		if (source != null)
 			return source.get();
-		if (current == null)
-			return null;
+		if (value == PRIMITIVE)
+			return type.fromBits(bits);
 
-		return current.value();
+		return decode(value);
 	}
 
 	@Override
-	public synchronized List<EphemeralAttributeValue> history() {
-		if (history == null)
-			return List.of();
+	public synchronized boolean asBoolean(boolean... _default) {
+		if (source() == null && value == PRIMITIVE && type == AttributeType.BOOLEAN)
+			return bits != 0;
+
+		return STAttribute.super.asBoolean(_default);
+	}
+
+	@Override
+	public synchronized int asInt() {
+		if (source() == null && value == PRIMITIVE && type == AttributeType.INTEGER)
+			return (int) bits;
+
+		return STAttribute.super.asInt();
+	}
+
+	@Override
+	public synchronized long asLong() {
+		if (source() == null && value == PRIMITIVE && type == AttributeType.LONG)
+			return bits;
 
-		return Collections.unmodifiableList(history);
+		return STAttribute.super.asLong();
+	}
+
+	@Override
+	public synchronized boolean isPresent() {
+		var source = source();
+		if (source != null)
+			return source.get() != null;
+
+		return value != null;
+	}
+
+	@Override
+	public List<EphemeralAttributeValue> history() {
+		return new HistoryView<>(this, () -> {
+			var history = storedHistory();
+			return history == null ? List.of() : history;
+		});
+	}
+
+	@Override
+	public List<EphemeralAttributeValue> history(Range<Integer> indexSelection, Range<Long> timestampSelection) {
+		// The selection is searched again on each access since values may be trimmed
+		return new HistoryView<>(this, () -> {
+			var history = storedHistory();
+			return history == null ? List.of() : history.select(indexSelection, timestampSelection);
+		});
 	}
 
 	AttributeType findType(EV_STStreamData.ValueType type) {
@@ -276,73 +763,380 @@ public class EphemeralAttribute extends AbstractSTObject implements STAttribute
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>
+	 * Snapshots are applied in the order they're merged. A snapshot is only
+	 * discarded as stale if it's older than a current value that was itself
+	 * merged, since an initial snapshot can race with live updates from the same
+	 * peer. Local values are never compared with merged timestamps because the
+	 * peer's clock may lag behind this instance's.
+	 */
 	@Override
 	public synchronized void merge(EV_STStreamData snapshot) {
 
+		// The peer's value was cleared or expired
+		if (snapshot.getRemoved()) {
+			if (value != null)
+				update(System.currentTimeMillis(), null, 0);
+			return;
+		}
+
 		// Set type if necessary
 		if (type == null) {
-			type = findType(snapshot.getValueType());
+			checkType(findType(snapshot.getValueType()));
 		}
 
-		// TODO check for historical value
+		if (merged && value != null && snapshot.getTimestamp() < timestamp) {
+			return;
+		}
 
-		var old = current;
-		current = type.unpack.apply(snapshot);
-		fireAttributeValueChangedEvent(this, old, current);
+		boolean updated;
+		if (type.isPrimitive()) {
+			updated = update(snapshot.getTimestamp(), PRIMITIVE, type.unpackBits(snapshot));
+		} else {
+			updated = !isUnchanged(snapshot) && update(snapshot.getTimestamp(), store(snapshot), 0);
+		}
+		if (updated)
+			merged = true;
 	}
 
 	@Override
 	public synchronized void set(Object value) {
 
-		// Save the old value for inclusion in the event
-		var old = current;
-
 		if (value == null) {
-			current = null;
-
-			fireAttributeValueChangedEvent(this, old, null);
+			update(System.currentTimeMillis(), null, 0);
 			return;
 		}
 
-		if (type == null) {
-			// Determine type experimentally
-			type = findType(value);
+		checkType(findType(value));
+
+		if (type.isPrimitive()) {
+			update(System.currentTimeMillis(), PRIMITIVE, type.toBits(value));
+		} else if (!isUnchanged(value)) {
+			update(System.currentTimeMillis(), store(value), 0);
+		}
+	}
+
+	/**
+	 * Determine whether {@link #update(long, Object, long)} would skip the given
+	 * non-primitive value. This is checked before the value is stored, so setting
+	 * a large value again doesn't copy it off-heap only to discard the copy.
+	 */
+	private boolean isUnchanged(Object value) {
+		if (extras != null && (extras.recordUnchanged || extras.source != null))
+			return false;
+		if (this.value instanceof OffHeapValue stored)
+			return stored.matches(value);
+
+		return Objects.deepEquals(value, this.value);
+	}
+
+	/**
+	 * Determine whether {@link #update(long, Object, long)} would skip the given
+	 * serialized non-primitive value. Only off-heap values are compared here since
+	 * smaller values are cheap to store.
+	 */
+	private boolean isUnchanged(EV_STStreamData snapshot) {
+		if (extras != null && (extras.recordUnchanged || extras.source != null))
+			return false;
+		if (this.value instanceof OffHeapValue stored)
+			return stored.matches(type == AttributeType.STRING ? snapshot.getStringBytes().asReadOnlyByteBuffer()
+					: snapshot.getBytes().asReadOnlyByteBuffer());
+
+		return false;
+	}
+
+	/**
+	 * Return the off-heap buffers of the given prior values to the pool.
+	 */
+	private static void release(Prior prior) {
+		for (var p = prior; p != null; p = p.next) {
+			if (p.value instanceof OffHeapValue stored)
+				stored.release();
+		}
+	}
+
+	private static Object intern(Object value) {
+		if (value instanceof String string) {
+			return STRINGS.intern(string);
+		}
+		return value;
+	}
+
+	/**
+	 * @return Whether this attribute has state that isn't captured by its
+	 *         snapshot, which prevents its document from being evicted
+	 */
+	synchronized boolean isPinned() {
+		return (extras != null && (extras.source != null || extras.retention != null || extras.recordUnchanged
+				|| extras.ttl > 0 || (extras.sample != null && !extras.sample.isCancelled()))) || hasOwnListeners();
+	}
+
+	/**
+	 * Determine whether updates that don't change the current value should still
+	 * be recorded. By default, such updates are ignored entirely: no history is
+	 * appended, the timestamp isn't changed, and no event is fired.
+	 *
+	 * @param recordUnchanged Whether to record every update
+	 */
+	public synchronized void setRecordUnchanged(boolean recordUnchanged) {
+		long before = estimateSize();
+		extras().recordUnchanged = recordUnchanged;
+		trimExtras();
+		account(before);
+	}
+
+	@Override
+	public synchronized void setBoolean(boolean value) {
+		checkType(AttributeType.BOOLEAN);
+		update(System.currentTimeMillis(), PRIMITIVE, value ? 1 : 0);
+	}
+
+	@Override
+	public synchronized void setInt(int value) {
+		checkType(AttributeType.INTEGER);
+		update(System.currentTimeMillis(), PRIMITIVE, value);
+	}
+
+	@Override
+	public synchronized void setLong(long value) {
+		checkType(AttributeType.LONG);
+		update(System.currentTimeMillis(), PRIMITIVE, value);
+	}
+
+	/**
+	 * Set the attribute's type if it's unknown or otherwise ensure that it hasn't
+	 * changed.
+	 */
+	private void checkType(AttributeType type) {
+		if (this.type == null) {
+			this.type = type;
+
+			// A numeric history may be usable now that the type is known
+			if (retention() != null) {
+				long before = estimateSize();
+				resetHistory();
+				account(before);
+			}
+		} else if (this.type != type) {
+			throw new IllegalArgumentException("Attribute type cannot change from " + this.type + " to " + type);
+		}
+	}
+
+	/**
+	 * Replace the current value. Nothing is allocated unless retention is enabled
+	 * or there's a listener to notify.
+	 *
+	 * @param timestamp The new value's timestamp
+	 * @param value     The new value, {@link #PRIMITIVE}, or {@code null}
+	 * @param bits      The new primitive value if applicable
+	 * @return Whether the value was replaced
+	 */
+	private boolean update(long timestamp, Object value, long bits) {
+
+		// Skip updates that don't change anything
+		if ((extras == null || (!extras.recordUnchanged && extras.source == null))
+				&& (value == PRIMITIVE ? this.value == PRIMITIVE && this.bits == bits
+						: Objects.deepEquals(value, this.value))) {
+			return false;
+		}
+
+		long before = estimateSize();
+
+		// Preserve the old value for any open views that might need it
+		long version = STStore.nextVersion();
+		long oldest = STStore.oldestView();
+		if (oldest != Long.MAX_VALUE) {
+			var extras = extras();
+			extras.prior = new Prior(this.version, this.timestamp, this.value, this.bits, extras.prior);
+
+			// Only the newest value at or before the oldest view is still reachable
+			for (var p = extras.prior; p != null; p = p.next) {
+				if (p.version <= oldest) {
+					release(p.next);
+					p.next = null;
+					break;
+				}
+			}
 		} else {
-			// Assert the type has not changed
-			if (type != findType(value)) {
-				throw new IllegalArgumentException();
+			if (extras != null && extras.prior != null) {
+				release(extras.prior);
+				extras.prior = null;
+				trimExtras();
 			}
+
+			// Nothing else refers to the replaced value
+			if (this.value instanceof OffHeapValue stored)
+				stored.release();
 		}
+		this.version = version;
 
-		// If retention is not enabled, then overwrite the old value
-		if (retention == null) {
-			current = new EphemeralAttributeValue(System.currentTimeMillis(), value);
+		// Save the old value for inclusion in the event
+		boolean observed = hasListeners();
+		var old = observed ? current() : null;
+
+		// Move current value into history if retention is enabled
+		if (retention() != null && this.value != null) {
+			if (this.value == PRIMITIVE) {
+				extras.history.append(this.timestamp, this.bits, type);
+			} else {
+				extras.history.append(current());
+			}
 		}
 
-		// Retention is enabled
-		else {
-			// Move current value into history
-			history.add(current);
+		this.timestamp = timestamp;
+		this.value = value;
+		this.bits = bits;
+		this.merged = false;
+
+		// Take action on the old values if necessary
+		checkRetention();
+
+		STStore.journal(this, version);
+
+		if (observed) {
+			fireAttributeValueChangedEvent(this, old, current());
+		}
 
-			// Set current value
-			current = new EphemeralAttributeValue(System.currentTimeMillis(), value);
+		account(before);
+
+		if (extras != null && extras.ttl > 0) {
+			extras.updated = System.currentTimeMillis();
+			if (value != null && extras.expiry == null)
+				extras.expiry = STStore.schedule(this::expire, extras.ttl);
+		}
+
+		if (parent instanceof EphemeralDocument document) {
+			document.touch();
+			document.modified();
+		}
+		return true;
+	}
+
+	/**
+	 * Clear the current value once it hasn't been updated for the given duration.
+	 * The clear is an ordinary update, so listeners receive a change event with a
+	 * {@code null} value.
+	 *
+	 * <p>
+	 * Updates don't reschedule the expiry. Instead, the pending check reschedules
+	 * itself for the remaining time if the value was updated in the meantime, so
+	 * frequently updated attributes cost one timer entry per TTL period.
+	 *
+	 * @param ttl The time-to-live in milliseconds or 0 to never expire
+	 */
+	public synchronized void setTtl(long ttl) {
+		if (ttl < 0)
+			throw new IllegalArgumentException("Invalid TTL: " + ttl);
+
+		long before = estimateSize();
+		var extras = extras();
+
+		// The current value's local update time is unknown, so start counting now
+		if (extras.ttl == 0)
+			extras.updated = System.currentTimeMillis();
+
+		extras.ttl = ttl;
+		if (extras.expiry != null) {
+			extras.expiry.cancel();
+			extras.expiry = null;
+		}
+		if (ttl > 0 && value != null) {
+			extras.expiry = STStore.schedule(this::expire,
+					Math.max(0, extras.updated + ttl - System.currentTimeMillis()));
+		}
+		trimExtras();
+		account(before);
+	}
+
+	/**
+	 * Release the resources held by this attribute because it was removed. This
+	 * cancels the pending expiry check and deletes any spilled history, which
+	 * would otherwise be adopted by an attribute created later at the same OID.
+	 * In-memory history remains readable through retained references.
+	 */
+	synchronized void release() {
+		if (extras == null)
+			return;
 
-			// Take action on the old values if necessary
-			checkRetention();
+		if (extras.expiry != null) {
+			extras.expiry.cancel();
+			extras.expiry = null;
+		}
+		if (extras.history instanceof SpillHistory) {
+			extras.retention = null;
+			resetHistory();
 		}
+	}
+
+	private synchronized void expire() {
+		if (extras == null || extras.expiry == null)
+			return;
 
-		fireAttributeValueChangedEvent(this, old, current);
+		extras.expiry = null;
+		if (extras.ttl == 0 || value == null)
+			return;
+
+		long remaining = extras.updated + extras.ttl - System.currentTimeMillis();
+		if (remaining > 0) {
+			extras.expiry = STStore.schedule(this::expire, remaining);
+		} else {
+			update(System.currentTimeMillis(), null, 0);
+		}
 	}
 
 	public synchronized void setRetention(RetentionPolicy retention) {
-		this.retention = retention;
+		long before = estimateSize();
+		extras().retention = retention;
+		resetHistory();
 		checkRetention();
+		trimExtras();
+		account(before);
 	}
 
 	public synchronized void setRetention(RetentionPolicy retention, int limit) {
-		this.retention = retention;
-		this.retentionLimit = limit;
+		long before = estimateSize();
+		var extras = extras();
+		extras.retention = retention;
+		extras.retentionLimit = limit;
+		resetHistory();
 		checkRetention();
+		trimExtras();
+		account(before);
+	}
+
+	/**
+	 * Aggregate values that fall out of the retention policy into the given tiers
+	 * instead of discarding them. Only {@link AttributeType#LONG} and
+	 * {@link AttributeType#INTEGER} attributes support rollups.
+	 *
+	 * @param tiers The rollup tiers from finest to coarsest
+	 */
+	public synchronized void setRollup(RollupTier... tiers) {
+		long before = estimateSize();
+		extras().rollup = tiers.length == 0 ? null : tiers.clone();
+		resetHistory();
+		checkRetention();
+		trimExtras();
+		account(before);
+	}
+
+	/**
+	 * Get the buckets in the given rollup tier.
+	 *
+	 * @param tier The tier index
+	 * @return A read-only view of the tier's buckets which reflects later updates
+	 */
+	public List<RollupValue> rollup(int tier) {
+		return new HistoryView<>(this, () -> {
+			if (storedHistory() instanceof NumericHistory numeric && extras.rollup != null
+					&& tier < extras.rollup.length) {
+				return numeric.rollup(tier);
+			}
+			return List.of();
+		});
 	}
 
 	@Override
@@ -353,14 +1147,39 @@ public class EphemeralAttribute extends AbstractSTObject implements STAttribute
 			return Stream.empty();
 
 		// Check the retention condition before serializing
+		long before = estimateSize();
 		checkRetention();
+		account(before);
 
 		// Determine relative OID
-		var relative_oid = Arrays.stream(oid().path()).skip(config.oid.path().length).collect(Collectors.joining("/"));
+		var relative_oid = Arrays.stream(oid().path()).skip(config.oid.path().length).map(PathComponent::element)
+				.collect(Collectors.joining("/"));
+
+		// Include historical values before the current value if requested
+		var history = Stream.<EV_STStreamData>empty();
+		if (config.indexSelection != null || config.timestampSelection != null) {
 
-		// TODO historical values
+			// Only serialize the selected slice
+			history = history(config.indexSelection, config.timestampSelection).stream()
+					.map(value -> type.pack.apply(value).setOid(relative_oid).build())
+					.collect(Collectors.toList()).stream();
 
-		// Request for current value only
+			// The current value follows the last historical value
+			int index = storedHistory() == null ? 0 : storedHistory().size();
+			if ((config.indexSelection != null && !config.indexSelection.contains(index))
+					|| (config.timestampSelection != null && !config.timestampSelection.contains(timestamp()))) {
+				return history;
+			}
+		} else if (config.history && storedHistory() != null && storedHistory().size() > 0) {
+			var stored = storedHistory();
+			var values = new EV_STStreamData[stored.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = stored.pack(i, type).setOid(relative_oid).build();
+			}
+			history = Arrays.stream(values);
+		}
+
+		var source = source();
 		if (source != null) {
 			var value = source.get();
 			if (type == null) {
@@ -368,32 +1187,71 @@ public class EphemeralAttribute extends AbstractSTObject implements STAttribute
 				type = findType(value);
 			}
 
-			return Stream.of(type.pack.apply(new EphemeralAttributeValue(System.currentTimeMillis(), value))
-					.setOid(relative_oid).build());
+			return Stream.concat(history,
+					Stream.of(type.pack.apply(new EphemeralAttributeValue(System.currentTimeMillis(), value))
+							.setOid(relative_oid).build()));
+		} else if (value == PRIMITIVE) {
+			return Stream.concat(history, Stream.of(type.packBits(timestamp, bits).setOid(relative_oid).build()));
+		} else if (value instanceof OffHeapValue stored) {
+			return Stream.concat(history, Stream.of(stored.pack(type, timestamp).setOid(relative_oid).build()));
 		} else {
-			return Stream.of(type.pack.apply(current).setOid(relative_oid).build());
+			return Stream.concat(history, Stream.of(type.pack.apply(current()).setOid(relative_oid).build()));
 		}
 	}
 
 	@Override
 	public synchronized void source(Supplier<?> source) {
-		this.source = source;
+		long before = estimateSize();
+		var extras = extras();
+		if (extras.sample != null) {
+			extras.sample.cancel();
+			extras.sample = null;
+		}
+		extras.source = source;
+		trimExtras();
+		account(before);
+	}
+
+	@Override
+	public synchronized Sampler.Sample sample(Supplier<?> source, long period) {
+		long before = estimateSize();
+		var extras = extras();
+		if (extras.sample != null) {
+			extras.sample.cancel();
+			extras.sample = null;
+		}
+		extras.source = null;
+
+		if (source != null) {
+			var sampler = STStore.sampler();
+			if (sampler != null) {
+				extras.sample = sampler.schedule(this, source, period);
+			} else {
+				// Without a store, the supplier can only be evaluated on demand
+				extras.source = source;
+			}
+		}
+		var sample = extras.sample;
+		trimExtras();
+		account(before);
+		return sample;
 	}
 
 	/**
 	 * @return The timestamp associated with the current value
 	 */
 	public synchronized long timestamp() {
-		if (source != null)
+		if (source() != null)
 			return 0;
-		if (current == null)
+		if (value == null)
 			return 0;
 
-		return current.timestamp();
+		return timestamp;
 	}
 
 	@Override
-	public String toString() {
+	public synchronized String toString() {
+		var current = current();
 		if (current != null)
 			return current.toString();
 		return null;
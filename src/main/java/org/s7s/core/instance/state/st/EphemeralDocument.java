@@ -8,20 +8,110 @@
 //============================================================================//
 package org.s7s.core.instance.state.st;
 
-import java.util.HashMap;
-import java.util.Map;
+import static org.s7s.core.instance.state.STStore.STStore;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.function.Consumer;
 
+import org.s7s.core.instance.state.TimingWheel;
+import org.s7s.core.instance.state.oid.Oid;
+import org.s7s.core.protocol.Stream.EV_STStreamData;
+
+/**
+ * An {@link EphemeralDocument} is an in-memory {@link STDocument}.
+ *
+ * <p>
+ * Children are held in {@link ChildMap}s so that reads never block and small
+ * documents don't pay for a hash table per child type.
+ */
 public class EphemeralDocument extends AbstractSTObject implements STDocument {
 
-	private final Map<String, STAttribute> attributes;
+	/**
+	 * The estimated heap cost of a document excluding its children.
+	 */
+	static final long SIZE = 120;
+
+	private static final AtomicLongFieldUpdater<EphemeralDocument> RETAINED = AtomicLongFieldUpdater
+			.newUpdater(EphemeralDocument.class, "retained");
+
+	private static final AtomicLongFieldUpdater<EphemeralDocument> NODES = AtomicLongFieldUpdater
+			.newUpdater(EphemeralDocument.class, "nodes");
+
+	private final ChildMap<STAttribute> attributes = new ChildMap<>();
+
+	private final ChildMap<STDocument> documents = new ChildMap<>();
+
+	/**
+	 * Removed children that may still be visible to open views.
+	 */
+	private volatile Tombstone tombstones;
+
+	private static record Tombstone(long version, STObject child, Tombstone next) {
+	}
+
+	/**
+	 * The time at which this document was last accessed directly. This is a plain
+	 * field on the read path, so the cold tier may observe a slightly stale value.
+	 */
+	private long accessed = STStore.clock();
 
-	private final Map<String, STDocument> documents;
+	/**
+	 * The time at which an attribute of this document was last updated.
+	 */
+	private volatile long updated = accessed;
+
+	/**
+	 * The number of milliseconds without an update anywhere in this document's
+	 * subtree after which it's removed or 0 if it never expires.
+	 */
+	private volatile long ttl;
+
+	/**
+	 * The pending expiry check.
+	 */
+	private TimingWheel.Timeout expiry;
+
+	/**
+	 * Whether this document belongs to a subtree that was evicted to the cold
+	 * tier.
+	 */
+	private volatile boolean evicted;
+
+	/**
+	 * The estimated number of bytes retained by this document and its attributes.
+	 * Child documents keep their own counts, which are only rolled up when read,
+	 * so writers don't contend on the counters of shared ancestors.
+	 */
+	private volatile long retained = SIZE;
+
+	/**
+	 * The number of objects in this document excluding child documents, that is
+	 * the document itself and its attributes.
+	 */
+	private volatile long nodes = 1;
 
 	public EphemeralDocument(STDocument parent, String id) {
 		super(parent, id);
-		this.attributes = new HashMap<>();
-		this.documents = new HashMap<>();
+	}
+
+	/**
+	 * Create a detached copy of a document at the given OID. Changes to the copy
+	 * aren't journaled or propagated to the document's actual parent.
+	 *
+	 * @param oid The OID of the document
+	 */
+	EphemeralDocument(Oid oid) {
+		super(oid);
 	}
 
 	@Override
@@ -31,27 +121,81 @@ public class EphemeralDocument extends AbstractSTObject implements STDocument {
 
 	@Override
 	public STDocument document(String id) {
-		synchronized (documents) {
-			STDocument document = documents.get(id);
-			if (document == null) {
-				document = new EphemeralDocument(this, id);
-				documents.put(id, document);
-				fireDocumentAddedEvent(this, document);
-			}
-			return document;
+		touch();
+
+		STDocument document = documents.get(id);
+		if (document != null) {
+			return resident(document);
 		}
+
+		// Only the thread that wins the insertion fires the event
+		document = new EphemeralDocument(this, id);
+		var previous = documents.putIfAbsent(id, document);
+		if (previous != null) {
+			return previous;
+		}
+
+		fireDocumentAddedEvent(this, document);
+		return document;
 	}
 
 	@Override
 	public STAttribute attribute(String id) {
-		synchronized (attributes) {
-			STAttribute attribute = attributes.get(id);
-			if (attribute == null) {
-				attribute = new EphemeralAttribute(this, id);
-				attributes.put(id, attribute);
-			}
+		touch();
+
+		var attribute = attributes.get(id);
+		if (attribute != null) {
 			return attribute;
 		}
+
+		attribute = new EphemeralAttribute(this, id);
+		var previous = attributes.putIfAbsent(id, attribute);
+		if (previous != null) {
+			return previous;
+		}
+
+		resize(EphemeralAttribute.SIZE, 1);
+		return attribute;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>
+	 * The locks of the attributes in this document's resident subtree are held
+	 * until the batch completes. They're taken in OID order, and before the
+	 * document's own lock, so that overlapping batches and attribute expiry
+	 * can't deadlock.
+	 */
+	@Override
+	public void batch(Consumer<STDocument> updates) {
+		var locks = new ArrayList<EphemeralAttribute>();
+		collectAttributes(locks);
+		locks.sort(Comparator.comparing(attribute -> attribute.oid().toString()));
+
+		lock(locks, 0, () -> batch(() -> updates.accept(this)));
+	}
+
+	private void collectAttributes(List<EphemeralAttribute> locks) {
+		attributes.forEach(attribute -> {
+			if (attribute instanceof EphemeralAttribute a)
+				locks.add(a);
+		});
+		documents.forEach(document -> {
+			if (document instanceof EphemeralDocument d)
+				d.collectAttributes(locks);
+		});
+	}
+
+	private static void lock(List<EphemeralAttribute> locks, int index, Runnable action) {
+		if (index == locks.size()) {
+			action.run();
+			return;
+		}
+
+		synchronized (locks.get(index)) {
+			lock(locks, index + 1, action);
+		}
 	}
 
 	@Override
@@ -61,73 +205,520 @@ public class EphemeralDocument extends AbstractSTObject implements STDocument {
 
 	@Override
 	public void forEachAttribute(Consumer<STAttribute> consumer) {
-		synchronized (attributes) {
-			attributes.values().forEach(consumer);
-		}
+		attributes.forEach(consumer);
 	}
 
 	@Override
 	public void forEachDocument(Consumer<STDocument> consumer) {
-		synchronized (documents) {
-			documents.values().forEach(consumer);
-		}
+		documents.forEach(consumer);
 	}
 
 	@Override
 	public void remove(STAttribute attribute) {
-		synchronized (attributes) {
-			if (attributes.values().remove(attribute)) {
-//				fireAttributeRemovedEvent(this, attribute);
-			}
+		if (attributes.remove(childId(attribute), attribute)) {
+			detach(attribute);
+			bury(attribute);
+//			fireAttributeRemovedEvent(this, attribute);
 		}
 	}
 
 	@Override
 	public void remove(STDocument document) {
-		synchronized (documents) {
-			if (documents.values().remove(document)) {
-				fireDocumentRemovedEvent(this, document);
-			}
+		if (documents.remove(childId(document), document)) {
+			detach(document);
+			bury(document);
+			fireDocumentRemovedEvent(this, document);
 		}
 	}
 
 	@Override
 	public void remove(String id) {
-		synchronized (documents) {
-			if (documents.remove(id) != null) {
-				return;
+		var document = documents.remove(id);
+		if (document != null) {
+			detach(document);
+			bury(document);
+			fireDocumentRemovedEvent(this, document);
+			return;
+		}
+		var attribute = attributes.remove(id);
+		if (attribute != null) {
+			detach(attribute);
+			bury(attribute);
+		}
+	}
+
+	/**
+	 * Journal the removal of a child and keep it reachable for open views that
+	 * were opened before the removal.
+	 */
+	private synchronized void bury(STObject child) {
+		long version = STStore.nextVersion();
+		STStore.journalRemoval(child, version);
+
+		long oldest = STStore.oldestView();
+		if (oldest == Long.MAX_VALUE) {
+			tombstones = null;
+			return;
+		}
+
+		// Discard tombstones that no open view can see
+		Tombstone kept = null;
+		for (var t = tombstones; t != null; t = t.next()) {
+			if (t.version() > oldest)
+				kept = new Tombstone(t.version(), t.child(), kept);
+		}
+		tombstones = new Tombstone(version, child, kept);
+	}
+
+	/**
+	 * Record an access to this document. If the document was evicted while
+	 * somebody still held a reference to it, it's reinstated so that changes made
+	 * through that reference aren't lost.
+	 *
+	 * <p>
+	 * Reinstatement happens asynchronously because callers may hold attribute
+	 * locks. The pending task keeps the document reachable in the meantime.
+	 *
+	 * <p>
+	 * Access times use the store's coarse clock and are only written when the
+	 * clock has moved, so repeated reads don't contend on the document.
+	 */
+	void touch() {
+		long now = STStore.clock();
+		if (accessed != now)
+			accessed = now;
+
+		if (evicted) {
+			// Find the root of the evicted subtree
+			var root = this;
+			while (root.parent instanceof EphemeralDocument parent && parent.evicted) {
+				root = parent;
 			}
+			if (root.parent instanceof EphemeralDocument parent) {
+				final var document = root;
+				STStore.pool().submit(() -> parent.reinstate(document));
+			} else {
+				root.setEvicted(false);
+			}
+		}
+	}
+
+	/**
+	 * Record an update to one of this document's attributes.
+	 */
+	void modified() {
+		updated = System.currentTimeMillis();
+	}
+
+	/**
+	 * Remove this document from its parent once nothing in its subtree has been
+	 * updated for the given duration. The removal fires an ordinary
+	 * {@link DocumentRemovedEvent}.
+	 *
+	 * <p>
+	 * Updates don't reschedule the expiry. Instead, the pending check reschedules
+	 * itself for the remaining time if the subtree was updated in the meantime.
+	 *
+	 * @param ttl The time-to-live in milliseconds or 0 to never expire
+	 */
+	public synchronized void setTtl(long ttl) {
+		if (ttl < 0)
+			throw new IllegalArgumentException("Invalid TTL: " + ttl);
+
+		this.ttl = ttl;
+		if (expiry != null) {
+			expiry.cancel();
+			expiry = null;
 		}
-		synchronized (attributes) {
-			if (attributes.remove(id) != null) {
+		if (ttl > 0) {
+			expiry = STStore.schedule(this::expire,
+					Math.max(0, lastUpdate() + ttl - System.currentTimeMillis()));
+		}
+	}
+
+	private void expire() {
+		synchronized (this) {
+			if (expiry == null || ttl == 0)
+				return;
+
+			expiry = null;
+			long remaining = lastUpdate() + ttl - System.currentTimeMillis();
+			if (remaining > 0) {
+				expiry = STStore.schedule(this::expire, remaining);
 				return;
 			}
 		}
+
+		// Remove outside of this document's lock like any other caller would
+		if (parent instanceof STDocument p)
+			p.remove(this);
+	}
+
+	/**
+	 * Cancel the pending expiry checks of this document and release the attributes
+	 * in its resident subtree, so that a removed subtree doesn't linger in the
+	 * timing wheel or on disk.
+	 */
+	void release() {
+		synchronized (this) {
+			if (expiry != null) {
+				expiry.cancel();
+				expiry = null;
+			}
+		}
+		attributes.forEach(attribute -> {
+			if (attribute instanceof EphemeralAttribute a)
+				a.release();
+		});
+		documents.forEach(document -> {
+			if (document instanceof EphemeralDocument d)
+				d.release();
+		});
+	}
+
+	/**
+	 * @return The time at which an attribute in this document's resident subtree
+	 *         was last updated
+	 */
+	private long lastUpdate() {
+		long[] latest = { updated };
+		documents.forEach(document -> {
+			if (document instanceof EphemeralDocument d)
+				latest[0] = Math.max(latest[0], d.lastUpdate());
+		});
+		return latest[0];
+	}
+
+	/**
+	 * Cancel the eviction of the given child.
+	 */
+	private synchronized void reinstate(EphemeralDocument document) {
+		if (documents.get(document.id()) instanceof ColdDocument cold && cold.evicted.get() == document) {
+			thaw(cold);
+		} else {
+			// The eviction hasn't completed yet, so cancel it
+			cancelEviction(document);
+		}
+	}
+
+	/**
+	 * Cancel the eviction of the given child and restore its size to this
+	 * document. The caller must hold this document's lock.
+	 */
+	private void cancelEviction(EphemeralDocument document) {
+		if (document.evicted) {
+			document.setEvicted(false);
+		}
+	}
+
+	private void setEvicted(boolean evicted) {
+		this.evicted = evicted;
+		documents.forEach(document -> {
+			if (document instanceof EphemeralDocument d)
+				d.setEvicted(evicted);
+		});
+	}
+
+	/**
+	 * Allow idle child documents to be evicted to the store's cold tier. This has
+	 * no effect unless the store was configured with a cold tier.
+	 *
+	 * <p>
+	 * Children that are strongly reachable from elsewhere are written to disk but
+	 * not released by eviction, so caches of domain objects should hold them
+	 * softly as {@code STCollectionStore} does.
+	 *
+	 * @param enabled Whether eviction is enabled
+	 */
+	public void setColdTier(boolean enabled) {
+		var tier = STStore.coldTier();
+		if (tier != null) {
+			if (enabled)
+				tier.register(this);
+			else
+				tier.unregister(this);
+		}
+	}
+
+	/**
+	 * Determine when this document or any of its descendants was last accessed.
+	 *
+	 * @return The last access time or -1 if the document can't be evicted because
+	 *         it has listeners or attributes with state that isn't part of a
+	 *         snapshot
+	 */
+	long lastAccess() {
+		if (hasOwnListeners() || ttl > 0)
+			return -1;
+
+		long[] latest = { accessed };
+		attributes.forEach(attribute -> {
+			if (latest[0] >= 0 && attribute instanceof EphemeralAttribute a && a.isPinned())
+				latest[0] = -1;
+		});
+		documents.forEach(document -> {
+			if (latest[0] >= 0 && document instanceof EphemeralDocument d) {
+				long access = d.lastAccess();
+				latest[0] = access < 0 ? -1 : Math.max(latest[0], access);
+			}
+		});
+		return latest[0];
+	}
+
+	/**
+	 * Write the given child to disk and replace it with a {@link ColdDocument}.
+	 *
+	 * @param document The child to evict
+	 * @param file     The file in which to store the child's snapshot
+	 * @return Whether the child was evicted
+	 */
+	boolean evict(EphemeralDocument document, Path file) {
+		synchronized (this) {
+			if (documents.get(document.id()) != document)
+				return false;
+
+			// Changes made after this point cancel the eviction, and the subtree no
+			// longer counts towards this document
+			document.setEvicted(true);
+		}
+
+		// The snapshot is taken without holding this document's lock because
+		// writers lock attributes before this document
+
+		var temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			for (var data : (Iterable<EV_STStreamData>) document.snapshot()::iterator) {
+				var bytes = data.toByteArray();
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		} catch (IOException e) {
+			synchronized (this) {
+				cancelEviction(document);
+			}
+			throw new UncheckedIOException(e);
+		}
+
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			synchronized (this) {
+				cancelEviction(document);
+			}
+			throw new UncheckedIOException(e);
+		}
+
+		synchronized (this) {
+			if (!document.evicted || documents.get(document.id()) != document)
+				return false;
+
+			documents.put(document.id(), new ColdDocument(this, document, file));
+			return true;
+		}
+	}
+
+	/**
+	 * Bring an evicted child back into memory. The original document is reinstated
+	 * if it's still reachable; otherwise it's loaded from disk.
+	 *
+	 * @param cold The child's stub
+	 * @return The resident child
+	 */
+	synchronized STDocument thaw(ColdDocument cold) {
+		var current = documents.get(cold.id());
+		if (current != cold)
+			// Already thawed or replaced
+			return current != null ? resident(current) : document(cold.id());
+
+		var document = cold.evicted.get();
+		if (document != null) {
+			documents.put(cold.id(), document);
+			cancelEviction(document);
+		} else {
+			document = new EphemeralDocument(this, cold.id());
+			cold.read(document::merge);
+			documents.put(cold.id(), document);
+		}
+		return document;
+	}
+
+	private STDocument resident(STDocument document) {
+		if (document instanceof ColdDocument cold)
+			return thaw(cold);
+
+		return document;
+	}
+
+	/**
+	 * Subtract a removed attribute's size from this document, release the
+	 * resources held by its subtree, and delete its cold tier file if there is
+	 * one.
+	 */
+	private void detach(STObject child) {
+		if (child instanceof EphemeralAttribute attribute) {
+			resize(-attribute.estimateSize(), -1);
+			attribute.release();
+		} else if (child instanceof EphemeralDocument document) {
+			document.release();
+		} else if (child instanceof ColdDocument cold) {
+			try {
+				Files.deleteIfExists(cold.file);
+			} catch (IOException e) {
+				// The file will be overwritten if the document is evicted again
+			}
+		}
+	}
+
+	/**
+	 * Perform the given action on all children that existed at the given version.
+	 *
+	 * @param version  The version
+	 * @param consumer The action
+	 */
+	void forEachAt(long version, Consumer<STObject> consumer) {
+		Consumer<STObject> visible = child -> {
+			if (existedAt(child, version))
+				consumer.accept(child);
+		};
+		documents.forEach(visible);
+		attributes.forEach(visible);
+
+		for (var t = tombstones; t != null; t = t.next()) {
+			if (t.version() > version)
+				visible.accept(t.child());
+		}
+	}
+
+	/**
+	 * Get the child with the given identifier that existed at the given version.
+	 *
+	 * @param version  The version
+	 * @param id       The child's identifier
+	 * @param document Whether the child is a document or an attribute
+	 * @return The child or {@code null}
+	 */
+	STObject getAt(long version, String id, boolean document) {
+		STObject child = document ? documents.get(id) : attributes.get(id);
+		if (child != null && existedAt(child, version))
+			return child;
+
+		// The child at that version may have been replaced or removed since
+		for (var t = tombstones; t != null; t = t.next()) {
+			if (t.version() > version && (t.child() instanceof STDocument) == document
+					&& id.equals(t.child().oid().last()) && existedAt(t.child(), version))
+				return t.child();
+		}
+		return null;
+	}
+
+	private static boolean existedAt(STObject child, long version) {
+		return !(child instanceof AbstractSTObject object) || object.created <= version;
 	}
 
 	@Override
 	public void set(String id, STAttribute attribute) {
-		synchronized (attributes) {
-			var previous = attributes.put(id, attribute);
-			attribute.replaceParent(this);
-		}
+		attribute.replaceParent(this);
+		var previous = attributes.put(id, attribute);
+		if (previous != null)
+			detach(previous);
+		if (attribute instanceof EphemeralAttribute a)
+			resize(a.estimateSize(), 1);
 	}
 
 	@Override
 	public void set(String id, STDocument document) {
-		synchronized (documents) {
-			var previous = documents.put(id, document);
-			document.replaceParent(this);
+		document.replaceParent(this);
+		var previous = documents.put(id, document);
+		if (previous != null)
+			detach(previous);
+	}
+
+	/**
+	 * @return The estimated number of bytes retained by this document and its
+	 *         resident descendants
+	 */
+	public long retainedSize() {
+		long[] size = { retained };
+		documents.forEach(child -> {
+			// Evicted subtrees don't count, even before their stub replaces them
+			if (child instanceof EphemeralDocument document && (evicted || !document.evicted))
+				size[0] += document.retainedSize();
+		});
+		return size[0];
+	}
+
+	/**
+	 * @return The number of resident objects in this document's subtree including
+	 *         itself
+	 */
+	public long nodeCount() {
+		long[] count = { nodes };
+		documents.forEach(child -> {
+			if (child instanceof EphemeralDocument document && (evicted || !document.evicted))
+				count[0] += document.nodeCount();
+		});
+		return count[0];
+	}
+
+	@Override
+	void resize(long bytes, long nodes) {
+		// Ancestors add this document's count when they're read
+		RETAINED.addAndGet(this, bytes);
+		NODES.addAndGet(this, nodes);
+	}
+
+	@Override
+	public STView view() {
+		return new STView(this);
+	}
+
+	@Override
+	void invalidateOid() {
+		super.invalidateOid();
+
+		Consumer<STObject> invalidate = child -> {
+			if (child instanceof AbstractSTObject object) {
+				object.invalidateOid();
+			}
+		};
+		attributes.forEach(invalidate);
+		documents.forEach(invalidate);
+	}
+
+	/**
+	 * Determine the key under which the given child is most likely stored.
+	 */
+	private static String childId(STObject child) {
+		if (child instanceof AbstractSTObject object) {
+			return object.id();
 		}
+		return child.oid().last();
 	}
 
 	@Override
 	public STDocument getDocument(String id) {
-		return documents.get(id);
+		touch();
+
+		var document = documents.get(id);
+		if (document != null) {
+			return resident(document);
+		}
+		return null;
 	}
 
 	@Override
 	public STAttribute getAttribute(String id) {
+		touch();
+		return attributes.get(id);
+	}
+
+	@Override
+	public STDocument peekDocument(String id) {
+		return documents.get(id);
+	}
+
+	@Override
+	public STAttribute peekAttribute(String id) {
 		return attributes.get(id);
 	}
 }
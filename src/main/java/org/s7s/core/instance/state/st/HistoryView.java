@@ -0,0 +1,69 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A read-only view of an attribute's stored history that doesn't copy any
+ * values. Every access resolves the underlying list again while holding the
+ * attribute's lock, so the view reflects later updates and never reads a
+ * history that the attribute has since replaced.
+ *
+ * <p>
+ * Iterating with {@link #forEach(Consumer)} sees a consistent state because
+ * the lock is held for the whole pass. Other traversals may observe values
+ * being appended or trimmed between accesses.
+ *
+ * @param <E> The element type
+ */
+final class HistoryView<E> extends AbstractList<E> implements RandomAccess {
+
+	private final Object lock;
+
+	/**
+	 * Resolves the underlying list. Only called while holding {@link #lock}.
+	 */
+	private final Supplier<List<E>> source;
+
+	HistoryView(Object lock, Supplier<List<E>> source) {
+		this.lock = lock;
+		this.source = source;
+	}
+
+	@Override
+	public E get(int index) {
+		synchronized (lock) {
+			var list = source.get();
+			Objects.checkIndex(index, list.size());
+			return list.get(index);
+		}
+	}
+
+	@Override
+	public int size() {
+		synchronized (lock) {
+			return source.get().size();
+		}
+	}
+
+	@Override
+	public void forEach(Consumer<? super E> action) {
+		synchronized (lock) {
+			for (var element : source.get()) {
+				action.accept(element);
+			}
+		}
+	}
+}
@@ -0,0 +1,302 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import org.s7s.core.instance.state.st.EphemeralAttribute.AttributeType;
+import org.s7s.core.instance.state.st.EphemeralAttribute.EphemeralAttributeValue;
+import org.s7s.core.instance.state.st.EphemeralAttribute.RollupTier;
+import org.s7s.core.instance.state.st.EphemeralAttribute.RollupValue;
+import org.s7s.core.instance.state.st.STAttribute.RetentionPolicy;
+import org.s7s.core.protocol.Stream.EV_STStreamData;
+
+/**
+ * An {@link AttributeHistory} for numeric attributes that stores values in
+ * primitive columns rather than as individual objects.
+ *
+ * <p>
+ * Raw values that fall out of the retention policy are folded into the first
+ * {@link RollupTier} (if any) as min/max/sum/count buckets. Buckets that fall
+ * out of a tier's retention period are folded into the next tier in the same
+ * way, and buckets leaving the last tier are discarded. Memory usage is
+ * therefore bounded by the tier configuration rather than the sample rate.
+ *
+ * <p>
+ * When viewed as a list, rollup buckets appear (as their average value) before
+ * the raw values, ordered from the coarsest tier to the finest.
+ */
+final class NumericHistory extends AttributeHistory {
+
+	/**
+	 * A circular buffer of fixed-width rows stored column by column.
+	 */
+	private static final class Columns {
+
+		private long[][] data;
+
+		private int head;
+
+		private int size;
+
+		Columns(int width) {
+			data = new long[width][8];
+		}
+
+		/**
+		 * Reserve a new row at the end of the buffer.
+		 *
+		 * @return The slot of the new row
+		 */
+		int add() {
+			if (size == data[0].length) {
+				for (int c = 0; c < data.length; c++) {
+					var grown = new long[data[c].length * 2];
+					int tail = Math.min(size, data[c].length - head);
+					System.arraycopy(data[c], head, grown, 0, tail);
+					System.arraycopy(data[c], 0, grown, tail, size - tail);
+					data[c] = grown;
+				}
+				head = 0;
+			}
+			return slot(size++);
+		}
+
+		long get(int column, int index) {
+			return data[column][slot(index)];
+		}
+
+		void removeFirst(int count) {
+			count = Math.min(count, size);
+			size -= count;
+			head = size == 0 ? 0 : (head + count) % data[0].length;
+		}
+
+		int slot(int index) {
+			return (head + index) % data[0].length;
+		}
+
+		long estimateSize() {
+			return data.length * (16 + 8L * data[0].length);
+		}
+	}
+
+	private static final int RAW_TIMESTAMP = 0;
+	private static final int RAW_VALUE = 1;
+
+	private static final int TIER_START = 0;
+	private static final int TIER_MIN = 1;
+	private static final int TIER_MAX = 2;
+	private static final int TIER_SUM = 3;
+	private static final int TIER_COUNT = 4;
+
+	private final AttributeType type;
+
+	private final RollupTier[] tiers;
+
+	private final Columns raw = new Columns(2);
+
+	private final Columns[] rollups;
+
+	NumericHistory(AttributeType type, RollupTier... tiers) {
+		this.type = type;
+		this.tiers = tiers.clone();
+		this.rollups = new Columns[tiers.length];
+		for (int i = 0; i < tiers.length; i++) {
+			rollups[i] = new Columns(5);
+		}
+	}
+
+	@Override
+	void append(EphemeralAttributeValue value) {
+		append(value.timestamp(), type.toBits(value.value()), type);
+	}
+
+	@Override
+	void append(long timestamp, long bits, AttributeType type) {
+		int slot = raw.add();
+		raw.data[RAW_TIMESTAMP][slot] = timestamp;
+		raw.data[RAW_VALUE][slot] = bits;
+	}
+
+	@Override
+	void retain(RetentionPolicy policy, long limit, long now) {
+		switch (policy) {
+		case ITEM_LIMITED:
+			if (raw.size > limit) {
+				foldRaw((int) (raw.size - limit));
+			}
+			break;
+		case TIME_LIMITED:
+			int low = 0;
+			int high = raw.size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (raw.get(RAW_TIMESTAMP, mid) < now - limit) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			foldRaw(low);
+			break;
+		case UNLIMITED:
+			// Do nothing
+			break;
+		}
+
+		for (int t = 0; t < tiers.length; t++) {
+			var tier = rollups[t];
+
+			int expired = 0;
+			while (expired < tier.size
+					&& tier.get(TIER_START, expired) + tiers[t].resolution() <= now - tiers[t].retention()) {
+				fold(t + 1, tier.get(TIER_START, expired), tier.get(TIER_MIN, expired), tier.get(TIER_MAX, expired),
+						tier.get(TIER_SUM, expired), tier.get(TIER_COUNT, expired));
+				expired++;
+			}
+			tier.removeFirst(expired);
+		}
+	}
+
+	/**
+	 * Move the given number of raw values into the first rollup tier.
+	 */
+	private void foldRaw(int count) {
+		for (int i = 0; i < count; i++) {
+			long value = raw.get(RAW_VALUE, i);
+			fold(0, raw.get(RAW_TIMESTAMP, i), value, value, value, 1);
+		}
+		raw.removeFirst(count);
+	}
+
+	/**
+	 * Merge a bucket into the given tier or discard it if there's no such tier.
+	 */
+	private void fold(int t, long timestamp, long min, long max, long sum, long count) {
+		if (t >= tiers.length)
+			return;
+
+		var tier = rollups[t];
+		long start = Math.floorDiv(timestamp, tiers[t].resolution()) * tiers[t].resolution();
+
+		// Merge into the last bucket if it covers the timestamp. Late values that
+		// belong to an earlier bucket are merged into the last bucket too.
+		if (tier.size > 0 && tier.get(TIER_START, tier.size - 1) >= start) {
+			int slot = tier.slot(tier.size - 1);
+			tier.data[TIER_MIN][slot] = Math.min(tier.data[TIER_MIN][slot], min);
+			tier.data[TIER_MAX][slot] = Math.max(tier.data[TIER_MAX][slot], max);
+			tier.data[TIER_SUM][slot] += sum;
+			tier.data[TIER_COUNT][slot] += count;
+		} else {
+			int slot = tier.add();
+			tier.data[TIER_START][slot] = start;
+			tier.data[TIER_MIN][slot] = min;
+			tier.data[TIER_MAX][slot] = max;
+			tier.data[TIER_SUM][slot] = sum;
+			tier.data[TIER_COUNT][slot] = count;
+		}
+	}
+
+	@Override
+	void removeFirst(int count) {
+		for (int t = tiers.length - 1; t >= 0 && count > 0; t--) {
+			int removed = Math.min(count, rollups[t].size);
+			rollups[t].removeFirst(removed);
+			count -= removed;
+		}
+		raw.removeFirst(count);
+	}
+
+	@Override
+	long timestamp(int index) {
+		for (int t = tiers.length - 1; t >= 0; t--) {
+			if (index < rollups[t].size)
+				return rollups[t].get(TIER_START, index);
+			index -= rollups[t].size;
+		}
+		return raw.get(RAW_TIMESTAMP, checkRawIndex(index));
+	}
+
+	/**
+	 * Get the value at the given index without boxing it.
+	 */
+	long bits(int index) {
+		for (int t = tiers.length - 1; t >= 0; t--) {
+			if (index < rollups[t].size)
+				return rollups[t].get(TIER_SUM, index) / rollups[t].get(TIER_COUNT, index);
+			index -= rollups[t].size;
+		}
+		return raw.get(RAW_VALUE, checkRawIndex(index));
+	}
+
+	private int checkRawIndex(int index) {
+		if (index < 0 || index >= raw.size)
+			throw new IndexOutOfBoundsException(index);
+		return index;
+	}
+
+	@Override
+	EV_STStreamData.Builder pack(int index, AttributeType type) {
+		return type.packBits(timestamp(index), bits(index));
+	}
+
+	@Override
+	public EphemeralAttributeValue get(int index) {
+		return new EphemeralAttributeValue(timestamp(index), type.fromBits(bits(index)));
+	}
+
+	@Override
+	public int size() {
+		int size = raw.size;
+		for (var tier : rollups) {
+			size += tier.size;
+		}
+		return size;
+	}
+
+	@Override
+	long estimateSize(long valueSize) {
+		long size = raw.estimateSize();
+		for (var tier : rollups) {
+			size += tier.estimateSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Get a view of the buckets in the given rollup tier.
+	 *
+	 * @param t The tier index
+	 * @return A read-only view of the tier's buckets
+	 */
+	List<RollupValue> rollup(int t) {
+		var tier = rollups[t];
+		var resolution = tiers[t].resolution();
+
+		return new AbstractList<>() {
+
+			@Override
+			public RollupValue get(int index) {
+				if (index < 0 || index >= tier.size)
+					throw new IndexOutOfBoundsException(index);
+
+				return new RollupValue(tier.get(TIER_START, index), resolution, tier.get(TIER_MIN, index),
+						tier.get(TIER_MAX, index), tier.get(TIER_SUM, index) / tier.get(TIER_COUNT, index),
+						tier.get(TIER_COUNT, index));
+			}
+
+			@Override
+			public int size() {
+				return tier.size;
+			}
+		};
+	}
+}
@@ -0,0 +1,200 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import static org.s7s.core.protocol.Stream.EV_STStreamData.newBuilder;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Objects;
+
+import com.google.protobuf.ByteString;
+import org.s7s.core.foundation.S7SCertificate;
+import org.s7s.core.instance.state.st.EphemeralAttribute.AttributeType;
+import org.s7s.core.protocol.Stream.EV_STStreamData;
+import org.s7s.core.protocol.Stream.EV_STStreamData.ValueType;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * A handle to the encoded form of a large attribute value that is stored in a
+ * pooled direct buffer rather than on the heap. The owning attribute returns
+ * the buffer to the pool with {@link #release()} as soon as the value is
+ * replaced. Handles that are never released explicitly are released once they
+ * become unreachable.
+ *
+ * <p>
+ * The decoded value is cached with a soft reference, so frequently read values
+ * don't need to be decoded each time, but the cache can be reclaimed under
+ * memory pressure.
+ */
+final class OffHeapValue {
+
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	/**
+	 * The encoded value which is never modified after construction.
+	 */
+	private final ByteBuf buffer;
+
+	private final Cleaner.Cleanable cleanable;
+
+	private volatile SoftReference<Object> decoded;
+
+	/**
+	 * @param encoded The encoded value
+	 * @param decoded The decoded value or {@code null} if unknown
+	 */
+	OffHeapValue(ByteBuffer encoded, Object decoded) {
+		int length = encoded.remaining();
+
+		buffer = PooledByteBufAllocator.DEFAULT.directBuffer(length, length);
+		buffer.writeBytes(encoded);
+
+		// The cleanup action must not capture this handle
+		final var b = buffer;
+		cleanable = CLEANER.register(this, b::release);
+
+		if (decoded != null)
+			this.decoded = new SoftReference<>(decoded);
+	}
+
+	/**
+	 * Return the buffer to the pool immediately. The handle must not be used
+	 * afterwards. Releasing a handle more than once has no effect.
+	 */
+	void release() {
+		cleanable.clean();
+	}
+
+	/**
+	 * @return The length of the encoded value in bytes
+	 */
+	int length() {
+		return buffer.readableBytes();
+	}
+
+	/**
+	 * Decode the stored value.
+	 *
+	 * @param type The attribute type
+	 * @return The decoded value or {@code null} if it was invalid
+	 */
+	Object decode(AttributeType type) {
+		var cached = decoded;
+		if (cached != null) {
+			var value = cached.get();
+			if (value != null)
+				return value;
+		}
+
+		var bytes = ByteBufUtil.getBytes(buffer);
+		Object value;
+		switch (type) {
+		case BYTES:
+			value = bytes;
+			break;
+		case STRING:
+			value = new String(bytes, StandardCharsets.UTF_8);
+			break;
+		case X509CERTIFICATE:
+			try {
+				value = S7SCertificate.of(bytes).certificate();
+			} catch (CertificateException e) {
+				return null;
+			}
+			break;
+		default:
+			throw new UnsupportedOperationException(type.name());
+		}
+
+		decoded = new SoftReference<>(value);
+		return value;
+	}
+
+	/**
+	 * Determine whether the given decoded value is equal to the stored value
+	 * without copying the stored value onto the heap.
+	 *
+	 * @param value The decoded value
+	 * @return Whether the values are equal
+	 */
+	boolean matches(Object value) {
+		var cached = decoded;
+		if (cached != null) {
+			var v = cached.get();
+			if (v != null)
+				return Objects.deepEquals(v, value);
+		}
+
+		if (value instanceof byte[] bytes)
+			return matches(ByteBuffer.wrap(bytes));
+		if (value instanceof String string)
+			return matches(StandardCharsets.UTF_8.encode(string));
+		if (value instanceof X509Certificate certificate) {
+			try {
+				return matches(ByteBuffer.wrap(certificate.getEncoded()));
+			} catch (CertificateEncodingException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determine whether the given encoded value is equal to the stored value.
+	 *
+	 * @param encoded The encoded value
+	 * @return Whether the values are equal
+	 */
+	boolean matches(ByteBuffer encoded) {
+		return buffer.nioBuffer().equals(encoded);
+	}
+
+	/**
+	 * Serialize the stored value without decoding it.
+	 *
+	 * @param type      The attribute type
+	 * @param timestamp The value's timestamp
+	 * @return A new builder
+	 */
+	EV_STStreamData.Builder pack(AttributeType type, long timestamp) {
+		var bytes = ByteString.copyFrom(buffer.nioBuffer());
+		switch (type) {
+		case BYTES:
+			return newBuilder().setTimestamp(timestamp).setValueType(ValueType.BYTES).setBytes(bytes);
+		case STRING:
+			return newBuilder().setTimestamp(timestamp).setValueType(ValueType.STRING).setStringBytes(bytes);
+		case X509CERTIFICATE:
+			return newBuilder().setTimestamp(timestamp).setBytes(bytes);
+		default:
+			throw new UnsupportedOperationException(type.name());
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof OffHeapValue other) {
+			return buffer.equals(other.buffer);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return buffer.hashCode();
+	}
+}
@@ -0,0 +1,106 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import org.s7s.core.instance.state.st.EphemeralAttribute.EphemeralAttributeValue;
+
+/**
+ * An {@link AttributeHistory} backed by a circular array. Appending and
+ * removing from the head are both constant time.
+ *
+ * <p>
+ * If the ring is bounded, it never grows past its bound and an append to a full
+ * ring overwrites the oldest value. Otherwise the array doubles when full.
+ */
+final class RingHistory extends AttributeHistory {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	/**
+	 * The maximum number of values or {@link Integer#MAX_VALUE} if unbounded.
+	 */
+	private final int bound;
+
+	private EphemeralAttributeValue[] elements;
+
+	/**
+	 * The index of the oldest value.
+	 */
+	private int head;
+
+	private int size;
+
+	RingHistory(int bound) {
+		if (bound <= 0)
+			throw new IllegalArgumentException("Invalid bound: " + bound);
+
+		this.bound = bound;
+		this.elements = new EphemeralAttributeValue[Math.min(bound, INITIAL_CAPACITY)];
+	}
+
+	RingHistory() {
+		this(Integer.MAX_VALUE);
+	}
+
+	@Override
+	void append(EphemeralAttributeValue value) {
+		if (size == elements.length) {
+			if (size == bound) {
+				// Overwrite the oldest value
+				elements[head] = value;
+				head = (head + 1) % elements.length;
+				return;
+			}
+			grow();
+		}
+
+		elements[(head + size) % elements.length] = value;
+		size++;
+	}
+
+	private void grow() {
+		int capacity = (int) Math.min(bound, Math.max(INITIAL_CAPACITY, elements.length * 2L));
+
+		var grown = new EphemeralAttributeValue[capacity];
+		int tail = Math.min(size, elements.length - head);
+		System.arraycopy(elements, head, grown, 0, tail);
+		System.arraycopy(elements, 0, grown, tail, size - tail);
+
+		elements = grown;
+		head = 0;
+	}
+
+	@Override
+	void removeFirst(int count) {
+		count = Math.min(count, size);
+		for (int i = 0; i < count; i++) {
+			elements[(head + i) % elements.length] = null;
+		}
+		head = size == count ? 0 : (head + count) % elements.length;
+		size -= count;
+	}
+
+	@Override
+	long timestamp(int index) {
+		return get(index).timestamp();
+	}
+
+	@Override
+	public EphemeralAttributeValue get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException(index);
+
+		return elements[(head + index) % elements.length];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+}
@@ -14,9 +14,12 @@ import java.util.NoSuchElementException;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
 import org.s7s.core.foundation.Platform.OsType;
 import org.s7s.core.foundation.Instance.InstanceFlavor;
 import org.s7s.core.foundation.Instance.InstanceType;
+import org.s7s.core.instance.state.Sampler;
 import org.s7s.core.instance.state.st.EphemeralAttribute.EphemeralAttributeValue;
 
 /**
@@ -199,10 +202,72 @@ public interface STAttribute extends STObject {
 	 * Get the history of the attribute's value if enabled by the
 	 * {@link RetentionPolicy}.
 	 *
-	 * @return An unmodifiable list
+	 * @return An unmodifiable view which reflects later updates
 	 */
 	public List<EphemeralAttributeValue> history();
 
+	/**
+	 * Get the part of the attribute's history that matches the given selections.
+	 * The history is searched rather than scanned.
+	 *
+	 * @param indexSelection     A range of history indices or {@code null}
+	 * @param timestampSelection A range of timestamps or {@code null}
+	 * @return An unmodifiable list
+	 */
+	public default List<EphemeralAttributeValue> history(Range<Integer> indexSelection,
+			Range<Long> timestampSelection) {
+		var history = history();
+
+		int from = 0;
+		int to = history.size();
+
+		if (indexSelection != null) {
+			if (indexSelection.hasLowerBound()) {
+				from = Math.max(from, indexSelection.lowerEndpoint()
+						+ (indexSelection.lowerBoundType() == BoundType.OPEN ? 1 : 0));
+			}
+			if (indexSelection.hasUpperBound()) {
+				to = Math.min(to, indexSelection.upperEndpoint()
+						+ (indexSelection.upperBoundType() == BoundType.CLOSED ? 1 : 0));
+			}
+		}
+
+		if (timestampSelection != null) {
+			if (timestampSelection.hasLowerBound()) {
+				from = Math.max(from, search(history, timestampSelection.lowerEndpoint(),
+						timestampSelection.lowerBoundType() == BoundType.OPEN));
+			}
+			if (timestampSelection.hasUpperBound()) {
+				to = Math.min(to, search(history, timestampSelection.upperEndpoint(),
+						timestampSelection.upperBoundType() == BoundType.CLOSED));
+			}
+		}
+
+		if (from >= to)
+			return List.of();
+
+		return history.subList(from, to);
+	}
+
+	/**
+	 * Find the index of the first value with a timestamp greater than (or equal
+	 * to) the given timestamp.
+	 */
+	private static int search(List<EphemeralAttributeValue> history, long timestamp, boolean exclusive) {
+		int low = 0;
+		int high = history.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			long t = history.get(mid).timestamp();
+			if (t < timestamp || (exclusive && t == timestamp)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
 	public default <E> void ifPresent(Consumer<E> consumer) {
 		var value = get();
 		if (value != null) {
@@ -226,6 +291,36 @@ public interface STAttribute extends STObject {
 	 */
 	public void set(Object value);
 
+	/**
+	 * Set the current value of the attribute to the given primitive. This avoids
+	 * boxing where the implementation supports it.
+	 *
+	 * @param value The new value
+	 */
+	public default void setBoolean(boolean value) {
+		set((Boolean) value);
+	}
+
+	/**
+	 * Set the current value of the attribute to the given primitive. This avoids
+	 * boxing where the implementation supports it.
+	 *
+	 * @param value The new value
+	 */
+	public default void setInt(int value) {
+		set((Integer) value);
+	}
+
+	/**
+	 * Set the current value of the attribute to the given primitive. This avoids
+	 * boxing where the implementation supports it.
+	 *
+	 * @param value The new value
+	 */
+	public default void setLong(long value) {
+		set((Long) value);
+	}
+
 	/**
 	 * Specify a source for the attribute's value. Setting an attribute source
 	 * "binds" the attribute and will cause {@link #set(Object)} calls to fail.
@@ -234,6 +329,20 @@ public interface STAttribute extends STObject {
 	 */
 	public void source(Supplier<?> source);
 
+	/**
+	 * Poll a supplier periodically and set each result as the attribute's value.
+	 * Unlike {@link #source(Supplier)}, sampled values are recorded in the
+	 * attribute's history according to its retention policy and fire change
+	 * events, so they can be streamed.
+	 *
+	 * @param source The supplier or {@code null} to stop sampling
+	 * @param period The sample period in milliseconds
+	 * @return A handle which stops only this sample or {@code null} if no
+	 *         sampler is running and the supplier became the attribute's source
+	 *         instead
+	 */
+	public Sampler.Sample sample(Supplier<?> source, long period);
+
 	/**
 	 * Get the timestamp associated with the attribute's current value.
 	 *
@@ -9,11 +9,9 @@
 package org.s7s.core.instance.state.st;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.s7s.core.protocol.Stream.EV_STStreamData;
@@ -39,6 +37,13 @@ public interface STDocument extends STObject {
 	public static final record DocumentRemovedEvent(STDocument document, STDocument oldDocument) {
 	}
 
+	/**
+	 * Indicates that several attributes in the document were changed together by
+	 * {@link STDocument#batch(Consumer)}.
+	 */
+	public static final record BatchEvent(STDocument document, List<STAttribute.ChangeEvent> changes) {
+	}
+
 	/**
 	 * Retrieve or create an attribute at the given OID. Any intermediate documents
 	 * will be created if necessary.
@@ -47,20 +52,22 @@ public interface STDocument extends STObject {
 	 * @return A new or old attribute
 	 */
 	public default STAttribute attribute(Oid oid) {
-		if (!oid().isAncestorOf(path)) {
-			throw new IllegalArgumentException("/" + Arrays.stream(path).collect(Collectors.joining("/"))
-					+ " is not a descendant of: " + oid().toString());
+		var path = oid.path();
+		var base = oid().path().length;
+
+		if (!oid().isAncestorOf(oid)) {
+			throw new IllegalArgumentException(oid + " is not a descendant of: " + oid());
 		}
-		if ((path.length - oid().path().length) == 1) {
-			return attribute(path[path.length - 1]);
+		if ((path.length - base) == 1) {
+			return attribute(path[path.length - 1].element());
 		}
 
 		STDocument document = this;
-		for (int i = oid().path().length; i < path.length - 1; i++) {
-			document = document.document(path[i]);
+		for (int i = base; i < path.length - 1; i++) {
+			document = document.document(path[i].element());
 		}
 
-		return document.attribute(path[path.length - 1]);
+		return document.attribute(path[path.length - 1].element());
 	}
 
 	/**
@@ -74,6 +81,28 @@ public interface STDocument extends STObject {
 	 */
 	public int attributeCount();
 
+	/**
+	 * Apply several updates to this document together. Listeners on the document
+	 * (and its ancestors) receive one {@link BatchEvent} instead of a
+	 * {@link STAttribute.ChangeEvent} for each update.
+	 *
+	 * <p>
+	 * A batch is not atomic. Ephemeral documents hold the locks of the
+	 * attributes in their subtree for the duration, so a reader of one of those
+	 * attributes waits for the batch to complete, but attributes created by the
+	 * batch and views can still expose a partial batch. Updates applied before a
+	 * failure are kept and still dispatched.
+	 *
+	 * <p>
+	 * The stream protocol has no message for a group of changes, so entangled
+	 * peers receive a batch as individual changes that are sent contiguously.
+	 *
+	 * @param updates The updates to apply
+	 */
+	public default void batch(Consumer<STDocument> updates) {
+		updates.accept(this);
+	}
+
 	/*
 	 * public default void copyFrom(STDocument other) {
 	 * other.forEachDocument(document -> {
@@ -83,9 +112,11 @@ public interface STDocument extends STObject {
 	 */
 
 	public default STDocument document(Oid oid) {
+		var path = oid.path();
+
 		STDocument document = this;
 		for (int i = oid().path().length; i < path.length; i++) {
-			document = document.document(path[i]);
+			document = document.document(path[i].element());
 		}
 
 		return document;
@@ -97,6 +128,40 @@ public interface STDocument extends STObject {
 
 	public STAttribute getAttribute(String id);
 
+	/**
+	 * Get a child document without counting as an access, so that traversals like
+	 * queries don't keep every document they visit from going idle. The child may
+	 * be a stub for a document in the cold tier, which {@link #peek()} reads
+	 * without bringing it back into memory.
+	 *
+	 * @param id The child's ID
+	 * @return The child or {@code null} if it doesn't exist
+	 */
+	public default STDocument peekDocument(String id) {
+		return getDocument(id);
+	}
+
+	/**
+	 * Get a readable form of this document without counting as an access. A
+	 * document that was evicted to the cold tier is read from disk into a detached
+	 * copy rather than faulted back into memory.
+	 *
+	 * @return This document or a detached copy of it
+	 */
+	public default STDocument peek() {
+		return this;
+	}
+
+	/**
+	 * Get an attribute without counting as an access.
+	 *
+	 * @param id The attribute's ID
+	 * @return The attribute or {@code null} if it doesn't exist
+	 */
+	public default STAttribute peekAttribute(String id) {
+		return getAttribute(id);
+	}
+
 	/**
 	 * @return The number of sub-documents belonging to this document
 	 */
@@ -139,6 +204,15 @@ public interface STDocument extends STObject {
 
 	public void set(String id, STAttribute attribute);
 
+	/**
+	 * Open an immutable point-in-time view of this document and its descendants.
+	 * Writers are never blocked by views, but the view must be closed so that old
+	 * values can be released.
+	 *
+	 * @return A new view
+	 */
+	public STView view();
+
 	public void set(String id, STDocument document);
 
 	public default String getId() {
@@ -153,7 +227,10 @@ public interface STDocument extends STObject {
 			String[] path = snapshot.getOid().split("/");
 
 			for (int i = 0; i < path.length - 1; i++) {
-				document = document.document(path[i]);
+				// Nothing to remove if the parent doesn't exist
+				document = document.getDocument(path[i]);
+				if (document == null)
+					return;
 			}
 
 			document.remove(path[path.length - 1]);
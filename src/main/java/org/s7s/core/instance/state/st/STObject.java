@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
+import com.google.common.collect.Range;
 import org.s7s.core.protocol.Stream.EV_STStreamData;
 import org.s7s.core.instance.state.oid.Oid;
 
@@ -73,6 +74,22 @@ public interface STObject {
 		public Oid oid;
 		public List<Oid> whitelist = new ArrayList<>();
 
+		/**
+		 * If specified, only historical values in this index range are included.
+		 */
+		public Range<Integer> indexSelection;
+
+		/**
+		 * If specified, only historical values in this timestamp range are included.
+		 */
+		public Range<Long> timestampSelection;
+
+		/**
+		 * Whether the entire history is included when there are no selections. By
+		 * default, only current values are included.
+		 */
+		public boolean history;
+
 		private STSnapshotStruct(Consumer<STSnapshotStruct> configurator) {
 			configurator.accept(this);
 		}
@@ -0,0 +1,291 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import static org.s7s.core.instance.state.STStore.STStore;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.s7s.core.instance.state.Sampler;
+import org.s7s.core.instance.state.oid.Oid;
+import org.s7s.core.instance.state.oid.Oid.PathComponent;
+import org.s7s.core.instance.state.st.EphemeralAttribute.EphemeralAttributeValue;
+import org.s7s.core.protocol.Stream.EV_STStreamData;
+
+/**
+ * An immutable point-in-time view of an {@link EphemeralDocument} and its
+ * descendants. Opening a view copies nothing; instead, writers preserve any
+ * values that open views can still see until the views are closed.
+ *
+ * <p>
+ * Views only include the current value of each attribute, not its history.
+ * Views must be closed when no longer needed.
+ */
+public final class STView implements STDocument, AutoCloseable {
+
+	/**
+	 * A read-only attribute value captured by a view.
+	 */
+	private static final class ViewAttribute implements STAttribute {
+
+		private final STAttribute attribute;
+
+		private final EphemeralAttributeValue value;
+
+		private ViewAttribute(STAttribute attribute, EphemeralAttributeValue value) {
+			this.attribute = attribute;
+			this.value = value;
+		}
+
+		@Override
+		public void addListener(Object listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object get() {
+			return value == null ? null : value.value();
+		}
+
+		@Override
+		public List<EphemeralAttributeValue> history() {
+			return List.of();
+		}
+
+		@Override
+		public void merge(EV_STStreamData snapshot) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Oid oid() {
+			return attribute.oid();
+		}
+
+		@Override
+		public STDocument parent() {
+			return attribute.parent();
+		}
+
+		@Override
+		public void removeListener(Object listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void replaceParent(STDocument parent) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void set(Object value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Stream<EV_STStreamData> snapshot(STSnapshotStruct config) {
+			if (value == null || !(attribute instanceof EphemeralAttribute ephemeral) || ephemeral.type == null)
+				return Stream.empty();
+
+			var relative_oid = Arrays.stream(oid().path()).skip(config.oid.path().length).map(PathComponent::element)
+					.collect(Collectors.joining("/"));
+
+			return Stream.of(ephemeral.type.pack.apply(value).setOid(relative_oid).build());
+		}
+
+		@Override
+		public void source(Supplier<?> source) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Sampler.Sample sample(Supplier<?> source, long period) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long timestamp() {
+			return value == null ? 0 : value.timestamp();
+		}
+	}
+
+	private final EphemeralDocument document;
+
+	/**
+	 * The handle of the outermost view in the store's view registry.
+	 */
+	private final long key;
+
+	private final boolean root;
+
+	/**
+	 * The version that this view reflects.
+	 */
+	private final long version;
+
+	STView(EphemeralDocument document) {
+		this.document = document;
+		this.key = STStore.openView();
+		this.root = true;
+
+		// Writers that allocated a version after this point will preserve old values
+		this.version = STStore.version();
+	}
+
+	private STView(STView parent, EphemeralDocument document) {
+		this.document = document;
+		this.key = parent.key;
+		this.root = false;
+		this.version = parent.version;
+	}
+
+	private STObject wrap(STObject child) {
+		if (child instanceof EphemeralDocument d)
+			return new STView(this, d);
+		if (child instanceof ColdDocument d)
+			// Cold documents don't change without being thawed first
+			return d;
+		if (child instanceof EphemeralAttribute a)
+			return new ViewAttribute(a, a.valueAt(version));
+		if (child instanceof STAttribute a)
+			return new ViewAttribute(a, new EphemeralAttributeValue(a.timestamp(), a.get()));
+		return null;
+	}
+
+	/**
+	 * @return The version that this view reflects which can be used as a watermark
+	 */
+	public long version() {
+		return version;
+	}
+
+	@Override
+	public void close() {
+		if (root) {
+			STStore.closeView(key);
+		}
+	}
+
+	@Override
+	public void addListener(Object listener) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public STAttribute attribute(String id) {
+		return getAttribute(id);
+	}
+
+	@Override
+	public int attributeCount() {
+		int[] count = new int[1];
+		forEachAttribute(attribute -> count[0]++);
+		return count[0];
+	}
+
+	@Override
+	public STDocument document(String id) {
+		return getDocument(id);
+	}
+
+	@Override
+	public int documentCount() {
+		int[] count = new int[1];
+		forEachDocument(document -> count[0]++);
+		return count[0];
+	}
+
+	@Override
+	public void forEachAttribute(Consumer<STAttribute> consumer) {
+		document.forEachAt(version, child -> {
+			if (child instanceof STAttribute && wrap(child) instanceof STAttribute attribute)
+				consumer.accept(attribute);
+		});
+	}
+
+	@Override
+	public void forEachDocument(Consumer<STDocument> consumer) {
+		document.forEachAt(version, child -> {
+			if (child instanceof STDocument && wrap(child) instanceof STDocument d)
+				consumer.accept(d);
+		});
+	}
+
+	@Override
+	public STAttribute getAttribute(String id) {
+		var child = document.getAt(version, id, false);
+		return child == null ? null : (STAttribute) wrap(child);
+	}
+
+	@Override
+	public STDocument getDocument(String id) {
+		var child = document.getAt(version, id, true);
+		return child == null ? null : (STDocument) wrap(child);
+	}
+
+	@Override
+	public void merge(EV_STStreamData snapshot) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Oid oid() {
+		return document.oid();
+	}
+
+	@Override
+	public STDocument parent() {
+		return document.parent();
+	}
+
+	@Override
+	public void remove(STAttribute attribute) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void remove(STDocument document) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void remove(String id) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void removeListener(Object listener) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void replaceParent(STDocument parent) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void set(String id, STAttribute attribute) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void set(String id, STDocument document) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public STView view() {
+		return this;
+	}
+}
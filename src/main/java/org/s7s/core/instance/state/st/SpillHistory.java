@@ -0,0 +1,421 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.s7s.core.instance.state.st.EphemeralAttribute.AttributeType;
+import org.s7s.core.instance.state.st.EphemeralAttribute.EphemeralAttributeValue;
+import org.s7s.core.instance.state.st.STAttribute.RetentionPolicy;
+import org.s7s.core.protocol.Stream.EV_STStreamData;
+
+/**
+ * An {@link AttributeHistory} that keeps a small window of recent values in
+ * memory and appends older values to memory-mapped segment files.
+ *
+ * <p>
+ * Each record in a segment is laid out as: timestamp (8 bytes), payload length
+ * (4 bytes), and a serialized {@link EV_STStreamData} payload. A zero timestamp
+ * and length mark the end of a segment. Segments are rotated when full and are
+ * compacted with {@link #compact()} once retention has removed more values
+ * than remain.
+ *
+ * <p>
+ * Segments are unmapped as soon as they're released, so a spill history must
+ * only be accessed while holding its attribute's lock.
+ */
+final class SpillHistory extends AttributeHistory {
+
+	private static final Logger log = LoggerFactory.getLogger(SpillHistory.class);
+
+	/**
+	 * The default size of a new segment file in bytes.
+	 */
+	static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	private static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+	/**
+	 * Unmaps a mapped buffer immediately rather than waiting for it to be
+	 * collected or {@code null} if that's not supported by the runtime.
+	 */
+	private static final MethodHandle UNMAP;
+
+	static {
+		MethodHandle unmap = null;
+		try {
+			var unsafe = Class.forName("sun.misc.Unsafe");
+			var field = unsafe.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unmap = MethodHandles.lookup()
+					.findVirtual(unsafe, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+					.bindTo(field.get(null));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			log.debug("Mapped segments will be unmapped by the garbage collector", e);
+		}
+		UNMAP = unmap;
+	}
+
+	private static final class Segment {
+
+		private final Path path;
+
+		private final MappedByteBuffer buffer;
+
+		/**
+		 * The offset of each record in the segment.
+		 */
+		private int[] offsets = new int[64];
+
+		/**
+		 * The number of records in the segment.
+		 */
+		private int count;
+
+		/**
+		 * The number of records at the beginning of the segment that have been
+		 * removed.
+		 */
+		private int skip;
+
+		/**
+		 * The offset at which the next record will be written.
+		 */
+		private int position;
+
+		private Segment(Path path, int size) throws IOException {
+			this.path = path;
+			try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				size = (int) Math.max(size, channel.size());
+				this.buffer = channel.map(MapMode.READ_WRITE, 0, size);
+			}
+		}
+
+		/**
+		 * Rebuild the record index of an existing segment.
+		 */
+		private void scan() {
+			while (position + HEADER_SIZE <= buffer.capacity()) {
+				long timestamp = buffer.getLong(position);
+				int length = buffer.getInt(position + Long.BYTES);
+				if (timestamp == 0 && length == 0)
+					break;
+
+				index(position);
+				position += HEADER_SIZE + length;
+			}
+		}
+
+		private boolean fits(int length) {
+			return position + HEADER_SIZE + length <= buffer.capacity();
+		}
+
+		private void write(long timestamp, byte[] payload) {
+			buffer.putLong(position, timestamp);
+			buffer.putInt(position + Long.BYTES, payload.length);
+			buffer.put(position + HEADER_SIZE, payload);
+
+			index(position);
+			position += HEADER_SIZE + payload.length;
+		}
+
+		private void index(int offset) {
+			if (count == offsets.length)
+				offsets = Arrays.copyOf(offsets, count * 2);
+			offsets[count++] = offset;
+		}
+
+		private int size() {
+			return count - skip;
+		}
+
+		private long timestamp(int index) {
+			return buffer.getLong(offsets[skip + index]);
+		}
+
+		private byte[] payload(int index) {
+			int offset = offsets[skip + index];
+			var payload = new byte[buffer.getInt(offset + Long.BYTES)];
+			buffer.get(offset + HEADER_SIZE, payload);
+			return payload;
+		}
+
+		/**
+		 * Unmap the segment and delete its file. The segment must not be used
+		 * afterwards.
+		 */
+		private void release() {
+			if (UNMAP != null) {
+				try {
+					UNMAP.invokeExact((ByteBuffer) buffer);
+				} catch (Throwable e) {
+					log.warn("Failed to unmap segment: {}", path, e);
+				}
+			}
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				log.warn("Failed to delete segment: {}", path);
+			}
+		}
+	}
+
+	private final Path directory;
+
+	private final AttributeType type;
+
+	/**
+	 * Recent values that have not been spilled yet.
+	 */
+	private final RingHistory hot = new RingHistory();
+
+	/**
+	 * The maximum number of values kept in {@link #hot}.
+	 */
+	private final int hotWindow;
+
+	private final List<Segment> segments = new ArrayList<>();
+
+	/**
+	 * The total number of live values in {@link #segments}.
+	 */
+	private int spilled;
+
+	/**
+	 * The number of values in {@link #segments} that have been removed but still
+	 * occupy space.
+	 */
+	private int removed;
+
+	/**
+	 * The sequence number of the next segment file.
+	 */
+	private long sequence;
+
+	/**
+	 * Create a new spill history, reopening any segments that already exist in the
+	 * given directory.
+	 *
+	 * @param directory The directory that holds this history's segments
+	 * @param type      The attribute type
+	 * @param hotWindow The number of recent values to keep in memory
+	 */
+	SpillHistory(Path directory, AttributeType type, int hotWindow) {
+		this.directory = directory;
+		this.type = type;
+		this.hotWindow = Math.max(1, hotWindow);
+
+		try {
+			Files.createDirectories(directory);
+
+			try (var files = Files.list(directory)) {
+				for (var path : files.filter(p -> p.getFileName().toString().endsWith(".seg")).sorted()
+						.collect(Collectors.toList())) {
+					var segment = new Segment(path, 0);
+					segment.scan();
+					segments.add(segment);
+					spilled += segment.size();
+
+					sequence = Math.max(sequence, parseSequence(path) + 1);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		log.debug("Opened {} spilled values in: {}", spilled, directory);
+	}
+
+	private static long parseSequence(Path path) {
+		var name = path.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - ".seg".length()));
+	}
+
+	private Segment newSegment(int size) throws IOException {
+		return new Segment(directory.resolve(String.format("%016d.seg", sequence++)), size);
+	}
+
+	@Override
+	void append(EphemeralAttributeValue value) {
+		hot.append(value);
+		while (hot.size() > hotWindow) {
+			spill(hot.get(0));
+			hot.removeFirst(1);
+		}
+	}
+
+	/**
+	 * Write the given value to the last segment, rotating segments if necessary.
+	 */
+	private void spill(EphemeralAttributeValue value) {
+		var payload = type.pack.apply(value).build().toByteArray();
+
+		try {
+			var segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+			if (segment == null || !segment.fits(payload.length)) {
+				if (segment != null)
+					segment.buffer.force();
+
+				segment = newSegment(Math.max(SEGMENT_SIZE, HEADER_SIZE * 2 + payload.length));
+				segments.add(segment);
+			}
+
+			segment.write(value.timestamp(), payload);
+			spilled++;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Rewrite all live spilled values into as few segments as possible and delete
+	 * the originals.
+	 */
+	void compact() {
+		if (segments.size() <= 1 && (segments.isEmpty() || segments.get(0).skip == 0))
+			return;
+
+		var compacted = new ArrayList<Segment>();
+		try {
+			Segment target = null;
+			for (var segment : segments) {
+				for (int i = 0; i < segment.size(); i++) {
+					var payload = segment.payload(i);
+					if (target == null || !target.fits(payload.length)) {
+						if (target != null)
+							target.buffer.force();
+
+						target = newSegment(Math.max(SEGMENT_SIZE, HEADER_SIZE * 2 + payload.length));
+						compacted.add(target);
+					}
+					target.write(segment.timestamp(i), payload);
+				}
+			}
+			if (target != null)
+				target.buffer.force();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		log.debug("Compacted {} segments into {}", segments.size(), compacted.size());
+		segments.forEach(Segment::release);
+		segments.clear();
+		segments.addAll(compacted);
+		removed = 0;
+	}
+
+	@Override
+	void retain(RetentionPolicy policy, long limit, long now) {
+		super.retain(policy, limit, now);
+
+		// Only rewrite the segments once that at least halves their size
+		if (removed > spilled)
+			compact();
+	}
+
+	/**
+	 * Unmap and delete all segments. The history must not be used afterwards.
+	 */
+	@Override
+	void close() {
+		segments.forEach(Segment::release);
+		segments.clear();
+		spilled = 0;
+		removed = 0;
+		hot.removeFirst(hot.size());
+
+		try {
+			Files.deleteIfExists(directory);
+		} catch (IOException e) {
+			log.debug("Failed to delete spill directory: {}", directory);
+		}
+	}
+
+	@Override
+	void removeFirst(int count) {
+		while (count > 0 && !segments.isEmpty()) {
+			var segment = segments.get(0);
+			if (count >= segment.size()) {
+				count -= segment.size();
+				spilled -= segment.size();
+				removed -= segment.skip;
+				segments.remove(0);
+				segment.release();
+			} else {
+				segment.skip += count;
+				spilled -= count;
+				removed += count;
+				count = 0;
+			}
+		}
+		hot.removeFirst(count);
+	}
+
+	@Override
+	long timestamp(int index) {
+		if (index >= spilled)
+			return hot.timestamp(index - spilled);
+
+		for (var segment : segments) {
+			if (index < segment.size())
+				return segment.timestamp(index);
+			index -= segment.size();
+		}
+		throw new IndexOutOfBoundsException(index);
+	}
+
+	@Override
+	public EphemeralAttributeValue get(int index) {
+		if (index >= spilled)
+			return hot.get(index - spilled);
+
+		for (var segment : segments) {
+			if (index < segment.size()) {
+				try {
+					return type.unpack.apply(EV_STStreamData.parseFrom(segment.payload(index)));
+				} catch (InvalidProtocolBufferException e) {
+					throw new IllegalStateException("Corrupt history segment: " + segment.path, e);
+				}
+			}
+			index -= segment.size();
+		}
+		throw new IndexOutOfBoundsException(index);
+	}
+
+	@Override
+	public int size() {
+		return spilled + hot.size();
+	}
+
+	@Override
+	long estimateSize(long valueSize) {
+		// Spilled values are off-heap
+		return hot.estimateSize(valueSize);
+	}
+}
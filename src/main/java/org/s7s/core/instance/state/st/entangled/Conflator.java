@@ -0,0 +1,90 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st.entangled;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.google.common.collect.Range;
+import org.s7s.core.protocol.Stream.EV_STStreamData;
+import org.s7s.core.instance.state.oid.Oid;
+import org.s7s.core.instance.state.st.STAttribute;
+import org.s7s.core.instance.state.st.STDocument;
+import org.s7s.core.instance.state.st.STObject;
+
+/**
+ * Collects changed attributes between periodic flushes so that several changes
+ * to the same attribute are sent as a single update containing its latest
+ * value. Flushes and document removals are serialized so that a removal is
+ * never followed by a stale change from inside the removed document.
+ */
+final class Conflator {
+
+	/**
+	 * Attributes that changed since the last flush.
+	 */
+	private final Set<STAttribute> dirty = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The OID that snapshots are relative to.
+	 */
+	private final Oid oid;
+
+	private final Consumer<EV_STStreamData> sink;
+
+	/**
+	 * @param oid  The OID that snapshots are relative to
+	 * @param sink The receiver of flushed updates
+	 */
+	Conflator(Oid oid, Consumer<EV_STStreamData> sink) {
+		this.oid = oid;
+		this.sink = sink;
+	}
+
+	/**
+	 * Mark the given attribute as changed.
+	 */
+	void add(STAttribute attribute) {
+		dirty.add(attribute);
+	}
+
+	/**
+	 * Send the removal of a document immediately. Changes to attributes inside the
+	 * document that haven't been flushed yet are discarded, since sending them
+	 * after the removal would recreate the document on the peer.
+	 *
+	 * @param document The removed document
+	 */
+	synchronized void remove(STDocument document) {
+		dirty.removeIf(attribute -> isDescendant(attribute, document));
+		sink.accept(EntangledObject.removal(oid, document));
+	}
+
+	private static boolean isDescendant(STObject object, STDocument document) {
+		// Removed subtrees keep their parent links, so ancestry is still intact
+		for (var parent = object.parent(); parent != null; parent = parent.parent()) {
+			if (parent == document)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Send the latest value of every attribute that changed since the last flush,
+	 * or its removal if it was cleared.
+	 */
+	synchronized void flush() {
+		for (var attribute : dirty) {
+			dirty.remove(attribute);
+
+			EntangledObject.serialize(oid, attribute, Range.atLeast(attribute.timestamp()), sink);
+		}
+	}
+}
@@ -20,6 +20,7 @@ import org.slf4j.LoggerFactory;
 import org.s7s.core.protocol.Stream.EV_STStreamData;
 import org.s7s.core.instance.state.st.EphemeralAttribute.EphemeralAttributeValue;
 import org.s7s.core.instance.state.st.STAttribute;
+import org.s7s.core.instance.state.Sampler;
 import org.s7s.core.instance.state.STCmd.STSyncStruct;
 
 public class EntangledAttribute extends EntangledObject implements STAttribute {
@@ -75,11 +76,46 @@ public class EntangledAttribute extends EntangledObject implements STAttribute {
 		((STAttribute) container).set(value);
 	}
 
+	@Override
+	public boolean asBoolean(boolean... _default) {
+		return ((STAttribute) container).asBoolean(_default);
+	}
+
+	@Override
+	public int asInt() {
+		return ((STAttribute) container).asInt();
+	}
+
+	@Override
+	public long asLong() {
+		return ((STAttribute) container).asLong();
+	}
+
+	@Override
+	public void setBoolean(boolean value) {
+		((STAttribute) container).setBoolean(value);
+	}
+
+	@Override
+	public void setInt(int value) {
+		((STAttribute) container).setInt(value);
+	}
+
+	@Override
+	public void setLong(long value) {
+		((STAttribute) container).setLong(value);
+	}
+
 	@Override
 	public void source(Supplier<?> source) {
 		((STAttribute) container).source(source);
 	}
 
+	@Override
+	public Sampler.Sample sample(Supplier<?> source, long period) {
+		return ((STAttribute) container).sample(source, period);
+	}
+
 	@Override
 	public long timestamp() {
 		return ((STAttribute) container).timestamp();
@@ -16,6 +16,7 @@ import org.slf4j.LoggerFactory;
 
 import org.s7s.core.instance.state.st.STAttribute;
 import org.s7s.core.instance.state.st.STDocument;
+import org.s7s.core.instance.state.st.STView;
 import org.s7s.core.instance.state.STCmd.STSyncStruct;
 
 public class EntangledDocument extends EntangledObject implements STDocument {
@@ -61,6 +62,16 @@ public class EntangledDocument extends EntangledObject implements STDocument {
 		return ((STDocument) container).attribute(id);
 	}
 
+	@Override
+	public STView view() {
+		return ((STDocument) container).view();
+	}
+
+	@Override
+	public void batch(Consumer<STDocument> updates) {
+		((STDocument) container).batch(updates);
+	}
+
 	@Override
 	public int attributeCount() {
 		return ((STDocument) container).attributeCount();
@@ -120,4 +131,14 @@ public class EntangledDocument extends EntangledObject implements STDocument {
 	public STAttribute getAttribute(String id) {
 		return ((STDocument) container).getAttribute(id);
 	}
+
+	@Override
+	public STDocument peekDocument(String id) {
+		return ((STDocument) container).peekDocument(id);
+	}
+
+	@Override
+	public STAttribute peekAttribute(String id) {
+		return ((STDocument) container).peekAttribute(id);
+	}
 }
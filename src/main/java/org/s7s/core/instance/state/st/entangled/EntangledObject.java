@@ -12,14 +12,19 @@ import static org.s7s.core.instance.stream.StreamStore.StreamStore;
 
 import java.util.Arrays;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Range;
 import com.google.common.eventbus.Subscribe;
 import org.s7s.core.protocol.Stream.EV_STStreamData;
 import org.s7s.core.instance.state.oid.Oid;
+import org.s7s.core.instance.state.oid.Oid.PathComponent;
 import org.s7s.core.instance.state.st.AbstractSTObject;
 import org.s7s.core.instance.state.st.STAttribute;
 import org.s7s.core.instance.state.st.STDocument;
@@ -61,6 +66,17 @@ public abstract class EntangledObject extends AbstractSTObject {
 
 	protected STObject container;
 
+	/**
+	 * Collects changed attributes if updates are being conflated or {@code null}
+	 * if every change is sent immediately.
+	 */
+	private Conflator dirty;
+
+	/**
+	 * The periodic task that flushes {@link #dirty}.
+	 */
+	private ScheduledFuture<?> flusher;
+
 	public StreamSink<EV_STStreamData> getSink() {
 		return sink;
 	}
@@ -105,6 +121,9 @@ public abstract class EntangledObject extends AbstractSTObject {
 			@Override
 			public void close() {
 				container.removeListener(EntangledObject.this);
+				if (flusher != null) {
+					flusher.cancel(false);
+				}
 				inactive.complete(null);
 			}
 
@@ -116,14 +135,35 @@ public abstract class EntangledObject extends AbstractSTObject {
 
 		StreamStore.add(source, new OutboundStreamAdapter<>(config.streamId, config.connection));
 
+		// Conflate changes so at most one update per attribute is sent each period
+		if (config.updatePeriod > 0) {
+			dirty = new Conflator(container.oid(), source::submit);
+			flusher = config.connection.channel().eventLoop().scheduleAtFixedRate(dirty::flush, config.updatePeriod,
+					config.updatePeriod, TimeUnit.MILLISECONDS);
+		}
+
 		source.start();
 
 		// Send initial state after starting the stream. This ensures no updates are
 		// missed, but can cause them to be received in the wrong order. Let the sink
 		// reorder them according to timestamp values.
-		container.snapshot(snapshot_config -> {
-			snapshot_config.oid = container.oid();
-		}).forEach(source::submit);
+		if (container instanceof STDocument document && config.indexSelection == null
+				&& config.timestampSelection == null) {
+
+			// Serialize a consistent view of the document without blocking writers
+			try (var view = document.view()) {
+				view.snapshot(snapshot_config -> {
+					snapshot_config.oid = container.oid();
+				}).forEach(source::submit);
+			}
+		} else {
+			// Views don't include history, so history selections read the live object
+			container.snapshot(snapshot_config -> {
+				snapshot_config.oid = container.oid();
+				snapshot_config.indexSelection = config.indexSelection;
+				snapshot_config.timestampSelection = config.timestampSelection;
+			}).forEach(source::submit);
+		}
 
 		// Close the stream now if requested
 		if (!config.permanent) {
@@ -163,9 +203,71 @@ public abstract class EntangledObject extends AbstractSTObject {
 
 	@Subscribe
 	void handle(STAttribute.ChangeEvent event) {
-		event.attribute().snapshot(config -> {
-			config.oid = container.oid();
-		}).forEach(source::submit);
+		if (dirty != null) {
+			dirty.add(event.attribute());
+			return;
+		}
+
+		synchronized (source) {
+			submit(event);
+		}
+	}
+
+	@Subscribe
+	void handle(STDocument.BatchEvent event) {
+		if (dirty != null) {
+			for (var change : event.changes()) {
+				dirty.add(change.attribute());
+			}
+			return;
+		}
+
+		// The protocol has no group message, so the best we can do is keep the batch
+		// contiguous in the stream
+		synchronized (source) {
+			for (var change : event.changes()) {
+				submit(change);
+			}
+		}
+	}
+
+	private void submit(STAttribute.ChangeEvent event) {
+		// Send the new value only rather than the entire history
+		serialize(container.oid(), event.attribute(),
+				event.newValue() == null ? null : Range.atLeast(event.newValue().timestamp()), source::submit);
+	}
+
+	/**
+	 * Serialize the given attribute's values or its removal if it has been
+	 * cleared, so that peers don't keep a value that expired or was unset.
+	 *
+	 * @param oid       The OID that serialized values are relative to
+	 * @param attribute The attribute
+	 * @param selection The timestamps of the values to send or {@code null}
+	 * @param sink      The receiver of serialized values
+	 */
+	static void serialize(Oid oid, STAttribute attribute, Range<Long> selection, Consumer<EV_STStreamData> sink) {
+		if (!attribute.isPresent()) {
+			sink.accept(removal(oid, attribute));
+			return;
+		}
+
+		attribute.snapshot(config -> {
+			config.oid = oid;
+			config.timestampSelection = selection;
+		}).forEach(sink);
+	}
+
+	/**
+	 * Build a message that removes the given object from peers.
+	 *
+	 * @param oid    The OID that the message is relative to
+	 * @param object The removed object
+	 * @return The message
+	 */
+	static EV_STStreamData removal(Oid oid, STObject object) {
+		return EV_STStreamData.newBuilder().setRemoved(true).setOid(Arrays.stream(object.oid().path())
+				.skip(oid.path().length).map(PathComponent::element).collect(Collectors.joining("/"))).build();
 	}
 
 	@Subscribe
@@ -177,9 +279,12 @@ public abstract class EntangledObject extends AbstractSTObject {
 
 	@Subscribe
 	void handle(STDocument.DocumentRemovedEvent event) {
-		source.submit(
-				EV_STStreamData.newBuilder().setRemoved(true).setOid(Arrays.stream(event.oldDocument().oid().path())
-						.skip(container.oid().path().length).collect(Collectors.joining("/"))).build());
+		if (dirty != null) {
+			dirty.remove(event.oldDocument());
+			return;
+		}
+
+		source.submit(removal(container.oid(), event.oldDocument()));
 	}
 
 	@Override
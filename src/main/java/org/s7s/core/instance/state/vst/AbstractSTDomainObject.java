@@ -8,16 +8,68 @@
 //============================================================================//
 package org.s7s.core.instance.state.vst;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import org.s7s.core.instance.state.oid.Oid;
 import org.s7s.core.instance.state.st.STAttribute;
 import org.s7s.core.instance.state.st.STDocument;
 
 public abstract class AbstractSTDomainObject implements STDomainObject {
 
+	/**
+	 * A fixed assignment of a domain type's well-known attributes to slots.
+	 * Attributes in a slot are resolved once per domain object and then accessed
+	 * by index instead of by path.
+	 */
+	public static final class Slots {
+
+		private static final Slots NONE = new Slots();
+
+		private final Oid[] oids;
+
+		/**
+		 * Slot indices keyed by OID identity. OIDs are constants, so identity is
+		 * sufficient and much cheaper than comparing paths. This map is never
+		 * modified after construction.
+		 */
+		private final Map<Oid, Integer> index = new IdentityHashMap<>();
+
+		/**
+		 * @param oids The OIDs of the attributes to store in slots, in slot order
+		 */
+		public Slots(Oid... oids) {
+			this.oids = oids.clone();
+			for (int i = 0; i < oids.length; i++) {
+				if (index.put(oids[i], i) != null)
+					throw new IllegalArgumentException("Duplicate slot: " + oids[i]);
+			}
+		}
+
+		private int indexOf(Oid oid) {
+			var slot = index.get(oid);
+			return slot == null ? -1 : slot;
+		}
+	}
+
 	protected STDocument document;
 
+	private final Slots table;
+
+	/**
+	 * Resolved attributes indexed by slot.
+	 */
+	private final AtomicReferenceArray<STAttribute> slots;
+
 	public AbstractSTDomainObject(STDocument document) {
+		this(document, Slots.NONE);
+	}
+
+	protected AbstractSTDomainObject(STDocument document, Slots table) {
 		this.document = document;
+		this.table = table;
+		this.slots = new AtomicReferenceArray<>(table.oids.length);
 	}
 
 	public Oid oid() {
@@ -29,10 +81,52 @@ public abstract class AbstractSTDomainObject implements STDomainObject {
 	}
 
 	public STAttribute get(Oid oid) {
-		return document.attribute(oid);
+		int slot = table.indexOf(oid);
+		if (slot < 0)
+			return document.attribute(oid);
+
+		return get(slot);
+	}
+
+	/**
+	 * Get the attribute in the given slot, resolving it on first access.
+	 *
+	 * @param slot The slot index
+	 * @return The attribute
+	 */
+	protected final STAttribute get(int slot) {
+		var attribute = slots.get(slot);
+		if (attribute == null) {
+			// Resolution is idempotent, so racing threads store the same attribute
+			attribute = document.attribute(table.oids[slot]);
+			slots.set(slot, attribute);
+		}
+		return attribute;
+	}
+
+	/**
+	 * Apply several updates to the underlying document together.
+	 *
+	 * @param updates The updates to apply
+	 * @see STDocument#batch(java.util.function.Consumer)
+	 */
+	public void batch(Runnable updates) {
+		document.batch(document -> updates.run());
 	}
 
 	public void set(Oid oid, Object value) {
 		get(oid).set(value);
 	}
+
+	public void set(Oid oid, boolean value) {
+		get(oid).setBoolean(value);
+	}
+
+	public void set(Oid oid, int value) {
+		get(oid).setInt(value);
+	}
+
+	public void set(Oid oid, long value) {
+		get(oid).setLong(value);
+	}
 }
@@ -8,42 +8,71 @@
 //============================================================================//
 package org.s7s.core.instance.store;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+import org.s7s.core.instance.state.st.EphemeralDocument;
 import org.s7s.core.instance.state.st.STDocument;
 import org.s7s.core.instance.state.vst.AbstractSTDomainObject;
 import org.slf4j.Logger;
 
 import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * {@link STCollectionStore} is a store backed by an {@link STDocument} which
  * may exist exclusively in memory (ephemeral collection), in a database, or on
  * another instance across the network (entangled collection).
  *
+ * <p>
+ * Elements are resolved from the collection on demand and their domain objects
+ * are only held softly, so the collection remains the source of truth and idle
+ * elements can be evicted to the state tree's cold tier.
+ *
  * @param <V>
  */
 public abstract class STCollectionStore<V extends AbstractSTDomainObject> extends StoreBase {
 
-	private Cache<String, V> cache;
+	private final Cache<String, V> cache = CacheBuilder.newBuilder().softValues().build();
 
 	protected STDocument collection;
 
 	private final Function<STDocument, V> constructor;
 
-	protected STCollectionStore(Logger log, Function<STDocument, V> constructor, STDocument collection) {
+	protected STCollectionStore(Logger log, Function<STDocument, V> constructor) {
 		super(log);
 		this.constructor = constructor;
-		this.documents = new HashMap<>();
+	}
 
-		collection.forEachDocument(document -> {
-			documents.put(document.getId(), constructor.apply(document));
-		});
+	protected STCollectionStore(Logger log, Function<STDocument, V> constructor, STDocument collection) {
+		this(log, constructor);
+		setDocument(collection);
+	}
+
+	/**
+	 * Set the document that backs the store.
+	 *
+	 * @param collection The collection document
+	 */
+	protected void setDocument(STDocument collection) {
+		this.collection = collection;
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Allow elements that haven't been accessed recently to be evicted to the
+	 * state tree's cold tier. This only applies to ephemeral collections.
+	 *
+	 * @param enabled Whether eviction is enabled
+	 */
+	protected void setColdTier(boolean enabled) {
+		if (collection instanceof EphemeralDocument document) {
+			document.setColdTier(enabled);
+		}
 	}
 
 	/**
@@ -56,13 +85,14 @@ public abstract class STCollectionStore<V extends AbstractSTDomainObject> extend
 	}
 
 	public Optional<V> get(String id) {
-		return Optional.ofNullable(cache.get(id, () -> {
+		var item = cache.getIfPresent(id);
+		if (item == null) {
 			var d = collection.getDocument(id);
 			if (d != null) {
-				return constructor.apply(d);
+				item = resolve(d);
 			}
-			return null;
-		}));
+		}
+		return Optional.ofNullable(item);
 	}
 
 	public Optional<V> remove(String id) {
@@ -83,8 +113,17 @@ public abstract class STCollectionStore<V extends AbstractSTDomainObject> extend
 		// TODO remove from collection
 	}
 
+	/**
+	 * Get a snapshot of every element in the store.
+	 *
+	 * @return The elements
+	 */
 	public Collection<V> values() {
-		return documents.values();
+		var values = new ArrayList<V>();
+		collection.forEachDocument(document -> {
+			values.add(resolve(document));
+		});
+		return values;
 	}
 
 	public void add(V value) {
@@ -99,7 +138,15 @@ public abstract class STCollectionStore<V extends AbstractSTDomainObject> extend
 		String id = UUID.randomUUID().toString();
 		V object = constructor.apply(collection.document(id));
 		configurator.accept(object);
-		documents.put(id, object);
+		cache.put(id, object);
 		return object;
 	}
+
+	/**
+	 * Get the domain object for an element, reusing the cached one if it hasn't
+	 * been collected yet.
+	 */
+	private V resolve(STDocument document) {
+		return cache.asMap().computeIfAbsent(document.getId(), id -> constructor.apply(document));
+	}
 }
@@ -18,7 +18,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.protobuf.MessageLiteOrBuilder;
-import org.s7s.core.instance.state.InstanceOids.ProfileOid.ConnectionOid;
 import org.s7s.core.instance.connection.Connection;
 import org.s7s.core.protocol.Stream.RQ_StopStream;
 import org.s7s.core.instance.stream.StreamEndpoint.StreamSubscriber;
@@ -36,7 +35,7 @@ public class OutboundStreamAdapter<E extends MessageLiteOrBuilder> implements Su
 	public OutboundStreamAdapter(int streamID, Connection sock) {
 		this.id = streamID;
 		this.connection = checkNotNull(sock);
-		this.sid = connection.get(ConnectionOid.REMOTE_SID).asInt();
+		this.sid = connection.remoteSid();
 	}
 
 	public OutboundStreamAdapter(int streamID, Connection sock, int sid) {
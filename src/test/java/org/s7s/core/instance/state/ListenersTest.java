@@ -0,0 +1,51 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.eventbus.Subscribe;
+
+class ListenersTest {
+
+	static class Counter {
+		int strings;
+		int objects;
+
+		@Subscribe
+		void onString(String event) {
+			strings++;
+		}
+
+		@Subscribe
+		private void onObject(Object event) {
+			objects++;
+		}
+	}
+
+	@Test
+	void testPost() {
+		var counter = new Counter();
+		var listeners = Listeners.add(null, counter);
+
+		// Adding the same listener twice has no effect
+		listeners = Listeners.add(listeners, counter);
+		assertEquals(1, listeners.length);
+
+		Listeners.post(listeners, "event");
+		Listeners.post(listeners, 123);
+		assertEquals(1, counter.strings);
+		assertEquals(2, counter.objects);
+
+		assertNull(Listeners.remove(listeners, counter));
+	}
+}
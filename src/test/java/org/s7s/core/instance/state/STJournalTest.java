@@ -0,0 +1,132 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.s7s.core.instance.state.STStore.STStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.s7s.core.instance.state.st.EphemeralDocument;
+import org.s7s.core.instance.state.st.STAttribute;
+import org.s7s.core.instance.state.st.STDocument;
+
+class STJournalTest {
+
+	@TempDir
+	Path directory;
+
+	private void open(STDocument root) {
+		STStore.init(config -> {
+			config.root = root;
+			config.durable = true;
+			config.journalDirectory = directory;
+			config.checkpointInterval = Long.MAX_VALUE;
+		});
+	}
+
+	@AfterEach
+	void close() throws Exception {
+		STStore.close();
+	}
+
+	private static void set(STJournal journal, STAttribute attribute, Object value) {
+		attribute.set(value);
+		journal.append(attribute, STStore.nextVersion());
+	}
+
+	@Test
+	void testRecover() throws Exception {
+		var root = new EphemeralDocument(null, null);
+		open(root);
+		root.document("a").attribute("b").set("1");
+		root.document("a").attribute("c").set(2);
+		root.document("a").attribute("b").set("3");
+		STStore.close();
+
+		var recovered = new EphemeralDocument(null, null);
+		open(recovered);
+
+		assertEquals("3", recovered.document("a").attribute("b").get());
+		assertEquals(2, recovered.document("a").attribute("c").get());
+	}
+
+	@Test
+	void testClear() throws Exception {
+		var root = new EphemeralDocument(null, null);
+		open(root);
+		root.document("a").attribute("b").set("1");
+		root.document("a").attribute("b").set(null);
+		STStore.close();
+
+		var recovered = new EphemeralDocument(null, null);
+		open(recovered);
+
+		assertNull(recovered.document("a").getAttribute("b"));
+	}
+
+	@Test
+	void testCheckpoint() throws Exception {
+		STStore.init(config -> {
+		});
+
+		var root = new EphemeralDocument(null, null);
+		var journal = new STJournal(directory, root, Long.MAX_VALUE);
+		set(journal, root.document("a").attribute("b"), "1");
+		set(journal, root.document("d").attribute("e"), "2");
+		journal.checkpoint();
+
+		// Changes after the checkpoint come from the log tail
+		set(journal, root.document("a").attribute("b"), "3");
+		var d = root.document("d");
+		root.remove("d");
+		journal.appendRemoval(d, STStore.nextVersion());
+		journal.checkpoint();
+		journal.close();
+
+		try (var files = Files.list(directory)) {
+			assertEquals(1, files.filter(p -> p.toString().endsWith(".ckpt")).count());
+		}
+
+		var recovered = new EphemeralDocument(null, null);
+		new STJournal(directory, recovered, Long.MAX_VALUE).close();
+
+		assertEquals("3", recovered.document("a").attribute("b").get());
+		assertNull(recovered.getDocument("d"));
+	}
+
+	@Test
+	void testOutOfOrder() throws Exception {
+		STStore.init(config -> {
+		});
+
+		var root = new EphemeralDocument(null, null);
+		var journal = new STJournal(directory, root, Long.MAX_VALUE);
+
+		// The newer record is queued first
+		var attribute = root.document("a").attribute("b");
+		long older = STStore.nextVersion();
+		long newer = STStore.nextVersion();
+		attribute.set("2");
+		journal.append(attribute, newer);
+		journal.appendRemoval(attribute, older);
+		journal.close();
+
+		var recovered = new EphemeralDocument(null, null);
+		new STJournal(directory, recovered, Long.MAX_VALUE).close();
+
+		assertEquals("2", recovered.document("a").attribute("b").get());
+	}
+}
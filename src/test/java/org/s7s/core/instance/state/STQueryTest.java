@@ -0,0 +1,64 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.s7s.core.instance.state.STStore.STStore;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import org.s7s.core.instance.state.oid.Oid;
+import org.s7s.core.instance.state.st.EphemeralDocument;
+import org.s7s.core.instance.state.st.STAttribute;
+
+class STQueryTest {
+
+	@BeforeAll
+	static void setup() {
+		var root = new EphemeralDocument(null, null);
+
+		// Enough profiles to split the wildcard level
+		for (int i = 0; i < 1000; i++) {
+			var profile = root.document("profile").document("p" + i);
+			profile.document("agent").attribute("os_type").set(i % 4 == 0 ? "windows" : "linux");
+			profile.document("connection").document("c").attribute("read_bytes").setLong(i);
+		}
+
+		STStore.init(config -> {
+			config.root = root;
+		});
+	}
+
+	@AfterAll
+	static void close() throws Exception {
+		STStore.close();
+	}
+
+	@Test
+	void testGroup() {
+		assertEquals(Map.of("linux", 750L, "windows", 250L), STStore.query(Oid.of("/profile/*/agent/os_type"),
+				Collectors.groupingBy(value -> value, Collectors.counting())));
+	}
+
+	@Test
+	void testFilter() {
+		assertEquals(249500L, STStore.query(Oid.of("/profile/*/connection/*/read_bytes"), STAttribute::asLong,
+				value -> value < 1000 && value % 2 == 0, Collectors.summingLong(Long::longValue)));
+	}
+
+	@Test
+	void testMissing() {
+		assertEquals(0L, STStore.query(Oid.of("/profile/*/agent/hostname"), Collectors.counting()));
+	}
+}
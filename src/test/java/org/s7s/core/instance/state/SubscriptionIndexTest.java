@@ -0,0 +1,54 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import org.s7s.core.instance.state.oid.Oid;
+
+class SubscriptionIndexTest {
+
+	@Test
+	void testMatch() {
+		var index = new SubscriptionIndex();
+		var listener = new Object();
+
+		index.register(Oid.of("/profile/*/agent/hostname"), listener);
+		index.register(Oid.of("/profile"), listener);
+
+		assertEquals(2, index.match(Oid.of("/profile/abc/agent/hostname"), -1, null).size());
+		assertEquals(1, index.match(Oid.of("/profile/abc/agent/os"), -1, null).size());
+		assertNull(index.match(Oid.of("/server/abc/agent/hostname"), -1, null));
+		assertEquals(1, index.match(Oid.of("/profile/abc/agent/hostname"), 1, null).size());
+
+		index.unregister(Oid.of("/profile/*/agent/hostname"), listener);
+		index.unregister(Oid.of("/profile"), listener);
+		assertTrue(index.isEmpty());
+		assertNull(index.match(Oid.of("/profile/abc/agent/hostname"), -1, null));
+	}
+
+	@Test
+	void testMatches() {
+		var index = new SubscriptionIndex();
+		var listener = new Object();
+
+		index.register(Oid.of("/profile/*/agent"), listener);
+		assertTrue(index.matches(Oid.of("/profile/abc/agent/hostname")));
+		assertFalse(index.matches(Oid.of("/profile/abc/connection")));
+		assertFalse(index.matches(Oid.of("/profile/abc")));
+
+		index.unregister(Oid.of("/profile/*/agent"), listener);
+		assertFalse(index.matches(Oid.of("/profile/abc/agent/hostname")));
+	}
+}
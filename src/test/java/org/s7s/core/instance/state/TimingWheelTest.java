@@ -0,0 +1,64 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+
+	@Test
+	void testExpiry() {
+		var expired = new ArrayList<String>();
+		var wheel = new TimingWheel(Runnable::run, 10, 4);
+
+		wheel.schedule(() -> expired.add("a"), 10);
+		wheel.schedule(() -> expired.add("b"), 25);
+
+		// Longer than one revolution
+		wheel.schedule(() -> expired.add("c"), 100);
+
+		wheel.advance();
+		assertEquals(1, expired.size());
+
+		wheel.advance();
+		wheel.advance();
+		assertEquals(2, expired.size());
+		assertEquals("b", expired.get(1));
+
+		for (int i = 3; i < 9; i++) {
+			wheel.advance();
+		}
+		assertEquals(2, expired.size());
+
+		wheel.advance();
+		assertEquals(3, expired.size());
+		assertEquals("c", expired.get(2));
+	}
+
+	@Test
+	void testCancel() {
+		var expired = new ArrayList<String>();
+		var wheel = new TimingWheel(Runnable::run, 10, 4);
+
+		var a = wheel.schedule(() -> expired.add("a"), 10);
+		wheel.schedule(() -> expired.add("b"), 10);
+		assertTrue(a.cancel());
+
+		wheel.advance();
+		assertEquals(1, expired.size());
+		assertEquals("b", expired.get(0));
+		assertFalse(a.cancel());
+	}
+}
@@ -12,8 +12,20 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import org.junit.jupiter.api.Test;
 
+import com.google.common.collect.Range;
+
 class OidTest {
 
+	@Test
+	void testAncestry() {
+		assertTrue(Oid.of("/profile/agent").isAncestorOf(Oid.of("/profile/agent/hostname")));
+		assertTrue(Oid.of("/profile/agent/hostname").isDescendantOf(Oid.of("/profile(123)/agent")));
+		assertTrue(Oid.of("/profile/*").isAncestorOf(Oid.of("/profile/agent/hostname")));
+		assertTrue(Oid.of("/profile").child("agent").isAncestorOf(Oid.of("/profile").relative("agent/hostname")));
+		assertFalse(Oid.of("/profile/server").isAncestorOf(Oid.of("/profile/agent/hostname")));
+		assertFalse(Oid.of("/profile/agent/hostname").isAncestorOf(Oid.of("/profile/agent")));
+	}
+
 	@Test
 	void testFirst() {
 		assertEquals("test", Oid.of("/Test/example").first());
@@ -32,6 +44,13 @@ class OidTest {
 		assertEquals("example", Oid.of("/Test/A()/example").last());
 	}
 
+	@Test
+	void testParseCache() {
+		assertSame(Oid.of("/profile/agent"), Oid.of("/profile/agent"));
+		assertEquals("org.s7s.core.instance:/profile(a)/agent", Oid.of("/profile()/agent", "a").toString());
+		assertEquals("org.s7s.core.instance:/profile()/agent", Oid.of("/profile()/agent").toString());
+	}
+
 	@Test
 	void testResolve() {
 		assertEquals("org.s7s.core.instance:/Test/A(a)/B(b)/C()",
@@ -44,6 +63,20 @@ class OidTest {
 				Oid.of("/test/A()/B()/C()").resolveLast("a", "b").toString());
 	}
 
+	@Test
+	void testSelector() {
+		var oid = Oid.of("/profile/agent/read_throughput[1690000000000-1690003600000]");
+		assertEquals("read_throughput", oid.last());
+		assertEquals(Range.closed(1690000000000L, 1690003600000L), oid.timestampSelection());
+		assertNull(oid.indexSelection());
+
+		assertEquals(Range.atMost(5), Oid.of("/profile/agent/read_throughput[,5]").indexSelection());
+		assertEquals(Range.atLeast(5), Oid.of("/profile/agent/read_throughput[5,]").indexSelection());
+		assertEquals(Range.atLeast(100L), Oid.of("/profile/agent/read_throughput[100-]").timestampSelection());
+
+		assertThrows(IllegalArgumentException.class, () -> Oid.of("/profile/agent/read_throughput[]"));
+	}
+
 	@Test
 	void testToString() {
 		assertEquals("org.s7s.core.instance:/Test/example", Oid.of("/Test/example").toString());
@@ -0,0 +1,58 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+class ChildMapTest {
+
+	@Test
+	void testPromotion() {
+		var map = new ChildMap<String>();
+
+		for (int i = 0; i < ChildMap.PROMOTE_THRESHOLD * 2; i++) {
+			assertNull(map.putIfAbsent("k" + i, "v" + i));
+			assertEquals(i + 1, map.size());
+		}
+		for (int i = 0; i < ChildMap.PROMOTE_THRESHOLD * 2; i++) {
+			assertEquals("v" + i, map.get("k" + i));
+		}
+
+		var values = new ArrayList<String>();
+		map.forEach(values::add);
+		assertEquals(ChildMap.PROMOTE_THRESHOLD * 2, values.size());
+	}
+
+	@Test
+	void testRemove() {
+		var map = new ChildMap<String>();
+		for (int i = 0; i < 10; i++) {
+			map.put("k" + i, "v" + i);
+		}
+
+		assertTrue(map.remove("k3", "v3"));
+		assertFalse(map.remove("k4", "v5"));
+		assertNull(map.get("k3"));
+		assertEquals("v4", map.get("k4"));
+		assertEquals(9, map.size());
+
+		for (int i = 0; i < 10; i++) {
+			map.remove("k" + i);
+		}
+		assertEquals(0, map.size());
+		assertNull(map.get("k0"));
+	}
+}
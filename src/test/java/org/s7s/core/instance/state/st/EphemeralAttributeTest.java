@@ -0,0 +1,329 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.s7s.core.instance.state.STStore.STStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.common.collect.Range;
+
+import org.s7s.core.instance.state.st.STAttribute.RetentionPolicy;
+import org.s7s.core.protocol.Stream.EV_STStreamData;
+import org.s7s.core.protocol.Stream.EV_STStreamData.ValueType;
+
+class EphemeralAttributeTest {
+
+	@AfterEach
+	void close() throws Exception {
+		STStore.close();
+	}
+
+	@Test
+	void testSkipUnchanged() {
+		var attribute = new EphemeralAttribute(null, "test");
+		attribute.setRetention(RetentionPolicy.UNLIMITED);
+
+		attribute.set("linux");
+		attribute.set("linux");
+		attribute.set("windows");
+		assertEquals(1, attribute.history().size());
+
+		attribute.setRecordUnchanged(true);
+		attribute.set("windows");
+		assertEquals(2, attribute.history().size());
+	}
+
+	@Test
+	void testHistoryView() {
+		var attribute = new EphemeralAttribute(null, "test");
+		attribute.setRetention(RetentionPolicy.ITEM_LIMITED, 5);
+		for (int i = 0; i < 10; i++) {
+			attribute.set("value" + i);
+		}
+
+		var history = attribute.history();
+		var selection = attribute.history(Range.closed(2, 3), null);
+		assertEquals(5, history.size());
+		assertEquals("value4", history.get(0).value());
+		assertEquals("value6", selection.get(0).value());
+
+		// The views follow later updates rather than copying the values
+		attribute.set("value10");
+		assertEquals("value5", history.get(0).value());
+		assertEquals("value7", selection.get(0).value());
+		assertThrows(IndexOutOfBoundsException.class, () -> history.get(5));
+		assertThrows(UnsupportedOperationException.class, () -> history.remove(0));
+
+		// A replaced history isn't read through an old view
+		attribute.setRetention(null);
+		assertEquals(0, history.size());
+	}
+
+	@Test
+	void testMergeSlowClock() {
+		var attribute = new EphemeralAttribute(null, "test");
+		attribute.set("local");
+
+		// The peer's clock is far behind, but its value is newer
+		attribute.merge(EV_STStreamData.newBuilder().setTimestamp(2).setValueType(ValueType.STRING).setString("2").build());
+		assertEquals("2", attribute.get());
+
+		// Stale values from the same peer are still discarded
+		attribute.merge(EV_STStreamData.newBuilder().setTimestamp(1).setValueType(ValueType.STRING).setString("1").build());
+		assertEquals("2", attribute.get());
+	}
+
+	@Test
+	void testSnapshotHistory() {
+		var attribute = new EphemeralAttribute(null, "test");
+		attribute.setRetention(RetentionPolicy.UNLIMITED);
+		attribute.set("1");
+		attribute.set("2");
+
+		// Only the current value unless the history is requested
+		assertEquals(1, attribute.snapshot().count());
+		assertEquals(2, attribute.snapshot(config -> {
+			config.history = true;
+		}).count());
+	}
+
+	@Test
+	void testInternStrings() {
+		var a = new EphemeralAttribute(null, "a");
+		var b = new EphemeralAttribute(null, "b");
+
+		a.set(new String("linux"));
+		b.set(new String("linux"));
+		assertSame(a.asString(), b.asString());
+	}
+
+	@Test
+	void testExtrasDiscarded() {
+		var attribute = new EphemeralAttribute(null, "test");
+		attribute.set("linux");
+		long size = attribute.estimateSize();
+		assertEquals(EphemeralAttribute.SIZE + 40 + "linux".length(), size);
+
+		// Rarely used state is released once it returns to its defaults
+		attribute.setRecordUnchanged(true);
+		assertTrue(attribute.estimateSize() > size);
+		attribute.setRecordUnchanged(false);
+		assertEquals(size, attribute.estimateSize());
+	}
+
+	@Test
+	void testPrimitive() {
+		var attribute = new EphemeralAttribute(null, "test");
+		attribute.setLong(5);
+		assertEquals(5, attribute.asLong());
+		assertEquals(5L, attribute.get());
+
+		// Boxed values of the same type are stored unboxed too
+		attribute.set(6L);
+		assertEquals(6, attribute.asLong());
+
+		// Primitives don't count towards the value's size
+		assertEquals(EphemeralAttribute.SIZE, attribute.estimateSize());
+
+		assertThrows(IllegalArgumentException.class, () -> attribute.setInt(7));
+		assertEquals(6, attribute.asLong());
+	}
+
+	@Test
+	void testPrimitiveHistory() {
+		var attribute = new EphemeralAttribute(null, "test");
+		attribute.setRetention(RetentionPolicy.UNLIMITED);
+		attribute.setInt(1);
+		attribute.setInt(1);
+		attribute.setInt(2);
+		attribute.setInt(3);
+
+		var history = attribute.history();
+		assertEquals(2, history.size());
+		assertEquals(1, history.get(0).value());
+		assertEquals(2, history.get(1).value());
+	}
+
+	@Test
+	void testPrimitiveSnapshot() {
+		var a = new EphemeralAttribute(null, "a");
+		var b = new EphemeralAttribute(null, "b");
+
+		a.setBoolean(true);
+		a.snapshot().forEach(b::merge);
+		assertTrue(b.asBoolean());
+		assertEquals(Boolean.TRUE, b.get());
+
+		a.setBoolean(false);
+		a.snapshot().forEach(b::merge);
+		assertFalse(b.asBoolean());
+	}
+
+	@Test
+	void testOffHeap() {
+		STStore.init(config -> {
+			config.offHeapThreshold = 16;
+		});
+
+		var bytes = new byte[100];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+
+		var a = new EphemeralAttribute(null, "a");
+		a.setRetention(RetentionPolicy.UNLIMITED);
+		a.set(bytes);
+		a.set(bytes.clone());
+		assertEquals(0, a.history().size());
+		assertArrayEquals(bytes, (byte[]) a.get());
+
+		var b = new EphemeralAttribute(null, "b");
+		a.snapshot().forEach(b::merge);
+		assertArrayEquals(bytes, (byte[]) b.get());
+
+		var c = new EphemeralAttribute(null, "c");
+		c.set("a".repeat(100));
+		assertEquals("a".repeat(100), c.get());
+
+		var d = new EphemeralAttribute(null, "d");
+		c.snapshot().forEach(d::merge);
+		assertEquals("a".repeat(100), d.get());
+	}
+
+	@Test
+	void testSample() throws Exception {
+		STStore.init(config -> {
+		});
+
+		var counter = new AtomicLong();
+		var a = new EphemeralAttribute(null, "a");
+		a.setRetention(RetentionPolicy.UNLIMITED);
+		a.sample(counter::incrementAndGet, 10);
+		await().atMost(5, TimeUnit.SECONDS).until(() -> counter.get() > 1);
+		a.sample(null, 0);
+
+		// Wait for an in-flight sample to finish and for sampling to stay stopped
+		await().during(100, TimeUnit.MILLISECONDS).atMost(5, TimeUnit.SECONDS)
+				.until(() -> Long.valueOf(counter.get()).equals(a.get()));
+
+		// Every sample replaced the previous value
+		long samples = counter.get();
+		assertEquals(samples, a.asLong());
+		assertEquals(samples - 1, a.history().size());
+	}
+
+	@Test
+	void testSampleHandle() throws Exception {
+		STStore.init(config -> {
+		});
+
+		var first = new AtomicLong();
+		var second = new AtomicLong();
+		var a = new EphemeralAttribute(null, "a");
+		var stale = a.sample(first::incrementAndGet, 10);
+		var sample = a.sample(second::incrementAndGet, 10);
+
+		// Cancelling a replaced sample doesn't stop the current one
+		stale.cancel();
+		long samples = second.get();
+		await().atMost(5, TimeUnit.SECONDS).until(() -> second.get() > samples);
+
+		sample.cancel();
+		assertTrue(sample.isCancelled());
+	}
+
+	@Test
+	void testSpillReused(@TempDir Path directory) throws Exception {
+		STStore.init(config -> {
+			config.spill = true;
+			config.spillDirectory = directory;
+			config.spillWindow = 1;
+		});
+
+		var attribute = new EphemeralAttribute(null, "test");
+		attribute.setRetention(RetentionPolicy.UNLIMITED);
+		for (int i = 0; i < 10; i++) {
+			attribute.set("value" + i);
+		}
+		assertEquals(9, attribute.history().size());
+
+		// The same spilled history is kept rather than copied into itself
+		attribute.setRetention(RetentionPolicy.UNLIMITED);
+		assertEquals(9, attribute.history().size());
+
+		// Switching away releases the segments
+		attribute.setRetention(RetentionPolicy.ITEM_LIMITED, 100);
+		assertEquals(9, attribute.history().size());
+		try (var files = Files.list(directory)) {
+			assertEquals(0, files.count());
+		}
+	}
+
+	@Test
+	void testSpillRemoved(@TempDir Path directory) throws Exception {
+		STStore.init(config -> {
+			config.spill = true;
+			config.spillDirectory = directory;
+			config.spillWindow = 1;
+		});
+
+		var root = new EphemeralDocument(null, null);
+		var attribute = (EphemeralAttribute) root.document("a").attribute("b");
+		attribute.setRetention(RetentionPolicy.UNLIMITED);
+		for (int i = 0; i < 10; i++) {
+			attribute.set("value" + i);
+		}
+
+		// Removing the subtree deletes its spilled history
+		root.remove("a");
+		try (var files = Files.list(directory)) {
+			assertEquals(0, files.count());
+		}
+
+		// A new attribute at the same OID starts with an empty history
+		attribute = (EphemeralAttribute) root.document("a").attribute("b");
+		attribute.setRetention(RetentionPolicy.UNLIMITED);
+		assertEquals(0, attribute.history().size());
+	}
+
+	@Test
+	void testTtlLocalTime() throws Exception {
+		STStore.init(config -> {
+		});
+
+		var a = new EphemeralAttribute(null, "a");
+		a.setTtl(1000);
+
+		// The peer's clock is far behind
+		a.merge(EV_STStreamData.newBuilder().setTimestamp(1).setValueType(ValueType.STRING).setString("1").build());
+		Thread.sleep(600);
+		long updated = System.currentTimeMillis();
+		a.merge(EV_STStreamData.newBuilder().setTimestamp(2).setValueType(ValueType.STRING).setString("2").build());
+
+		// The TTL is measured from the last local update
+		await().atMost(5, TimeUnit.SECONDS).until(() -> a.get() == null);
+		assertTrue(System.currentTimeMillis() - updated >= 1000);
+	}
+}
@@ -0,0 +1,364 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.s7s.core.instance.state.STStore.STStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.common.eventbus.Subscribe;
+
+import org.s7s.core.instance.state.oid.Oid;
+
+class EphemeralDocumentTest {
+
+	@AfterEach
+	void close() throws Exception {
+		STStore.close();
+	}
+
+	@Test
+	void testConcurrentGetOrCreate() throws InterruptedException {
+		var root = new EphemeralDocument(null, null);
+
+		var documents = ConcurrentHashMap.<STDocument>newKeySet();
+		var attributes = ConcurrentHashMap.<STAttribute>newKeySet();
+
+		var executor = Executors.newFixedThreadPool(32);
+		var start = new CountDownLatch(1);
+		for (int i = 0; i < 32; i++) {
+			executor.submit(() -> {
+				start.await();
+				for (int j = 0; j < 1000; j++) {
+					documents.add(root.document("test"));
+					attributes.add(root.attribute("test"));
+				}
+				return null;
+			});
+		}
+
+		start.countDown();
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+
+		assertEquals(Set.of(root.getDocument("test")), documents);
+		assertEquals(Set.of(root.getAttribute("test")), attributes);
+	}
+
+	@Test
+	void testRemove() {
+		var root = new EphemeralDocument(null, null);
+
+		var document = root.document("a");
+		var attribute = root.attribute("b");
+		assertSame(document, root.getDocument("a"));
+		assertSame(attribute, root.getAttribute("b"));
+
+		// Removing a different object with the same ID has no effect
+		root.remove(new EphemeralDocument(null, "a"));
+		assertSame(document, root.getDocument("a"));
+
+		root.remove(document);
+		root.remove(attribute);
+		assertNull(root.getDocument("a"));
+		assertNull(root.getAttribute("b"));
+		assertEquals(0, root.documentCount());
+		assertEquals(0, root.attributeCount());
+	}
+
+	@Test
+	void testOidCache() {
+		var root = new EphemeralDocument(null, null);
+		var b = root.document("a").document("b");
+		var c = b.attribute("c");
+
+		assertSame(c.oid(), c.oid());
+		assertEquals("org.s7s.core.instance:/a/b/c", c.oid().toString());
+
+		// Moving a document invalidates the cached OIDs of its descendants
+		root.document("x").set("b", b);
+		assertEquals("org.s7s.core.instance:/x/b/c", c.oid().toString());
+	}
+
+	@Test
+	void testBatch() throws InterruptedException {
+		STStore.init(config -> {
+		});
+
+		var root = new EphemeralDocument(null, null);
+		var events = new LinkedBlockingQueue<Object>();
+		root.addListener(new Object() {
+			@Subscribe
+			void onBatch(STDocument.BatchEvent event) {
+				events.add(event);
+			}
+
+			@Subscribe
+			void onChange(STAttribute.ChangeEvent event) {
+				events.add(event);
+			}
+		});
+
+		root.batch(document -> {
+			document.attribute("a").set("1");
+			document.attribute("b").set("2");
+		});
+
+		var event = assertInstanceOf(STDocument.BatchEvent.class, events.poll(5, TimeUnit.SECONDS));
+		assertEquals(2, event.changes().size());
+		assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void testBatchFailure() throws InterruptedException {
+		STStore.init(config -> {
+		});
+
+		var root = new EphemeralDocument(null, null);
+		var events = new LinkedBlockingQueue<STDocument.BatchEvent>();
+		root.addListener(new Object() {
+			@Subscribe
+			void onBatch(STDocument.BatchEvent event) {
+				events.add(event);
+			}
+		});
+
+		assertThrows(IllegalStateException.class, () -> root.batch(document -> {
+			document.attribute("a").set("1");
+			throw new IllegalStateException();
+		}));
+
+		// The change applied before the failure is kept and dispatched
+		assertEquals("1", root.attribute("a").asString());
+		var event = events.poll(5, TimeUnit.SECONDS);
+		assertEquals(1, event.changes().size());
+	}
+
+	@Test
+	void testBatchLocked() throws Exception {
+		STStore.init(config -> {
+		});
+
+		var root = new EphemeralDocument(null, null);
+		root.attribute("a").set("0");
+		root.document("b").attribute("c").set("0");
+
+		var read = new LinkedBlockingQueue<String>();
+		var reader = new Thread(() -> {
+			read.add(root.attribute("a").asString() + root.document("b").attribute("c").asString());
+		});
+
+		root.batch(document -> {
+			document.attribute("a").set("1");
+			reader.start();
+
+			// The reader can't see the first update until the batch completes
+			await().atMost(5, TimeUnit.SECONDS).until(() -> reader.getState() == Thread.State.BLOCKED);
+			document.document("b").attribute("c").set("1");
+		});
+
+		assertEquals("11", read.poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void testView() {
+		var root = new EphemeralDocument(null, null);
+		root.attribute("a").set("1");
+		root.document("d").attribute("x").set("old");
+
+		try (var view = root.view()) {
+			root.attribute("a").set("2");
+			root.attribute("b").set("3");
+			root.remove(root.getDocument("d"));
+
+			// The view is unaffected by later writes
+			assertEquals("1", view.getAttribute("a").get());
+			assertNull(view.getAttribute("b"));
+			assertEquals("old", view.getDocument("d").getAttribute("x").get());
+
+			// A replacement created after the view doesn't hide the original
+			root.document("d").attribute("x").set("new");
+			assertEquals("old", view.getDocument("d").getAttribute("x").get());
+			assertEquals("old", view.document("d").attribute("x").get());
+		}
+
+		assertEquals("2", root.getAttribute("a").get());
+		assertNull(root.getDocument("d"));
+	}
+
+	@Test
+	void testVersionWatermark() {
+		var root = new EphemeralDocument(null, null);
+
+		// Every modification advances the version, even without a view
+		root.attribute("a").set("1");
+		long version = STStore.version();
+		root.attribute("a").set("2");
+		assertTrue(STStore.version() > version);
+
+		try (var view = root.view()) {
+			assertEquals(STStore.version(), view.version());
+
+			// The view's version identifies its state
+			root.attribute("a").set("3");
+			assertTrue(STStore.version() > view.version());
+			assertEquals("2", view.attribute("a").get());
+		}
+	}
+
+	@Test
+	void testColdTier(@TempDir Path directory) throws Exception {
+		// Only files that belong to the cold tier are cleaned up
+		Files.createDirectories(directory.resolve("cold"));
+		Files.writeString(directory.resolve("unrelated"), "");
+		Files.writeString(directory.resolve("cold").resolve("0123456789abcdef0123456789abcdef.cold"), "");
+
+		STStore.init(config -> {
+			config.coldIdle = 60000;
+			config.coldBudget = 2000;
+			config.coldDirectory = directory;
+		});
+
+		var root = new EphemeralDocument(null, null);
+		root.setColdTier(true);
+
+		var a = root.document("a");
+		a.attribute("x").set("1".repeat(1000));
+		var b = root.document("b");
+		b.attribute("x").set("2");
+		b.attribute("y").set("2".repeat(1000));
+
+		// Access times have the resolution of the timer tick
+		long created = STStore.clock();
+		await().atMost(5, TimeUnit.SECONDS).until(() -> STStore.clock() > created);
+		a.attribute("x").set("3".repeat(1000));
+
+		// Only the least recently used document exceeds the budget
+		assertEquals(1, STStore.coldTier().sweep());
+		root.forEachDocument(document -> {
+			if (document.getId().equals("b"))
+				assertInstanceOf(ColdDocument.class, document);
+		});
+
+		// Snapshots of cold documents are read from disk
+		assertEquals(2, root.snapshot().count());
+
+		// The original document is reinstated while it's still reachable
+		assertSame(b, root.getDocument("b"));
+		assertEquals("2", b.attribute("x").get());
+
+		assertTrue(Files.exists(directory.resolve("unrelated")));
+		assertFalse(Files.exists(directory.resolve("cold").resolve("0123456789abcdef0123456789abcdef.cold")));
+	}
+
+	@Test
+	void testColdQuery(@TempDir Path directory) throws Exception {
+		var root = new EphemeralDocument(null, null);
+
+		STStore.init(config -> {
+			config.root = root;
+			config.coldIdle = 60000;
+			config.coldBudget = 1;
+			config.coldDirectory = directory;
+		});
+
+		var profiles = root.document("profile");
+		profiles.setColdTier(true);
+		profiles.document("a").document("agent").attribute("os_type").set("linux");
+		profiles.document("b").document("agent").attribute("os_type").set("windows");
+
+		assertEquals(2, STStore.coldTier().sweep());
+
+		// Queries read cold documents without faulting them back in
+		assertEquals(Set.of("linux", "windows"),
+				STStore.query(Oid.of("/profile/*/agent/os_type"), Collectors.toSet()));
+		assertEquals("linux", STStore.query(Oid.of("/profile/a/agent/os_type"), Collectors.toList()).get(0));
+		profiles.forEachDocument(document -> {
+			assertInstanceOf(ColdDocument.class, document);
+		});
+
+		// Cold documents don't count towards the retained size
+		assertEquals(0, STStore.retainedSize(Oid.of("/profile/a")));
+	}
+
+	@Test
+	void testSizeAccounting() {
+		var root = new EphemeralDocument(null, null);
+		assertEquals(EphemeralDocument.SIZE, root.retainedSize());
+		assertEquals(1, root.nodeCount());
+
+		var attribute = root.document("a").attribute("b");
+		assertEquals(2 * EphemeralDocument.SIZE + EphemeralAttribute.SIZE, root.retainedSize());
+		assertEquals(3, root.nodeCount());
+
+		// Value sizes are rolled up to every ancestor when read
+		attribute.set("1234567890");
+		long size = root.retainedSize();
+		assertEquals(size, EphemeralDocument.SIZE + root.getDocument("a").retainedSize());
+		attribute.set("12345678901234567890");
+		assertEquals(size + 10, root.retainedSize());
+
+		root.remove("a");
+		assertEquals(EphemeralDocument.SIZE, root.retainedSize());
+		assertEquals(1, root.nodeCount());
+	}
+
+	@Test
+	void testSizeLookup() {
+		var root = new EphemeralDocument(null, null);
+		root.document("a").attribute("b").set("1");
+		STStore.init(config -> {
+			config.root = root;
+		});
+
+		assertEquals(root.getDocument("a").retainedSize(), STStore.retainedSize(Oid.of("/a")));
+		assertEquals(2, STStore.nodeCount(Oid.of("/a")));
+
+		// Missing documents aren't created by the lookup
+		assertEquals(0, STStore.retainedSize(Oid.of("/x/y")));
+		assertEquals(0, STStore.nodeCount(Oid.of("/x/y")));
+		assertNull(root.getDocument("x"));
+	}
+
+	@Test
+	void testPeek() {
+		var document = new EphemeralDocument(null, null);
+		var attribute = document.attribute("a");
+		long accessed = document.lastAccess();
+
+		// Wait for the coarse clock to move on
+		await().atMost(5, TimeUnit.SECONDS).until(() -> STStore.clock() > accessed);
+
+		assertSame(attribute, document.peekAttribute("a"));
+		assertEquals(accessed, document.lastAccess());
+
+		assertSame(attribute, document.getAttribute("a"));
+		assertTrue(document.lastAccess() > accessed);
+	}
+}
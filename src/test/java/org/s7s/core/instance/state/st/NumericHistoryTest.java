@@ -0,0 +1,46 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import org.s7s.core.instance.state.st.EphemeralAttribute.AttributeType;
+import org.s7s.core.instance.state.st.EphemeralAttribute.RollupTier;
+import org.s7s.core.instance.state.st.STAttribute.RetentionPolicy;
+
+class NumericHistoryTest {
+
+	@Test
+	void testRollup() {
+		var history = new NumericHistory(AttributeType.LONG, new RollupTier(60_000, 3_600_000),
+				new RollupTier(900_000, 86_400_000));
+
+		// Record one sample per second for a little under three hours
+		for (long t = 0; t < 10_000_000; t += 1000) {
+			history.append(t, t / 1000, AttributeType.LONG);
+			history.retain(RetentionPolicy.TIME_LIMITED, 300_000, t);
+		}
+
+		// Five minutes of raw samples remain (inclusive of both ends)
+		assertEquals(301, history.size() - history.rollup(0).size() - history.rollup(1).size());
+
+		var bucket = history.rollup(0).get(0);
+		assertEquals(60, bucket.count());
+		assertEquals(bucket.min() + 59, bucket.max());
+		assertEquals((bucket.min() + bucket.max()) / 2, bucket.average());
+
+		// The combined view is ordered by timestamp
+		for (int i = 1; i < history.size(); i++) {
+			assertTrue(history.timestamp(i - 1) <= history.timestamp(i));
+		}
+	}
+}
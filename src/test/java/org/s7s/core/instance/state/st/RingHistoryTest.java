@@ -0,0 +1,61 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import org.s7s.core.instance.state.st.EphemeralAttribute.EphemeralAttributeValue;
+import org.s7s.core.instance.state.st.STAttribute.RetentionPolicy;
+
+class RingHistoryTest {
+
+	@Test
+	void testBounded() {
+		var history = new RingHistory(5);
+		for (int i = 0; i < 12; i++) {
+			history.append(new EphemeralAttributeValue(i, i));
+		}
+
+		assertEquals(5, history.size());
+		assertEquals(7, history.get(0).timestamp());
+		assertEquals(11, history.get(4).timestamp());
+	}
+
+	@Test
+	void testTimeLimited() {
+		var history = new RingHistory();
+		for (int i = 0; i < 100; i++) {
+			history.append(new EphemeralAttributeValue(i * 10, i));
+		}
+
+		// Only values from the last 250 ms should remain
+		history.retain(RetentionPolicy.TIME_LIMITED, 250, 990);
+		assertEquals(26, history.size());
+		assertEquals(740, history.get(0).timestamp());
+	}
+
+	@Test
+	void testWrapAround() {
+		var history = new RingHistory();
+		for (int i = 0; i < 10; i++) {
+			history.append(new EphemeralAttributeValue(i, i));
+		}
+		history.retain(RetentionPolicy.ITEM_LIMITED, 3, 0);
+		for (int i = 10; i < 60; i++) {
+			history.append(new EphemeralAttributeValue(i, i));
+		}
+
+		assertEquals(53, history.size());
+		assertEquals(7, history.get(0).timestamp());
+		assertEquals(59, history.get(52).timestamp());
+		assertEquals(13, history.ceiling(20));
+	}
+}
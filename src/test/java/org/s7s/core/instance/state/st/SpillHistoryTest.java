@@ -0,0 +1,104 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.s7s.core.instance.state.st.EphemeralAttribute.AttributeType;
+import org.s7s.core.instance.state.st.EphemeralAttribute.EphemeralAttributeValue;
+import org.s7s.core.instance.state.st.STAttribute.RetentionPolicy;
+
+class SpillHistoryTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void testSpill() {
+		var history = new SpillHistory(directory, AttributeType.STRING, 10);
+		for (int i = 1; i <= 100; i++) {
+			history.append(new EphemeralAttributeValue(i, "value" + i));
+		}
+
+		assertEquals(100, history.size());
+		assertEquals("value1", history.get(0).value());
+		assertEquals(95, history.timestamp(94));
+		assertEquals("value100", history.get(99).value());
+		assertEquals(50, history.ceiling(51));
+	}
+
+	@Test
+	void testReopen() throws Exception {
+		var history = new SpillHistory(directory, AttributeType.STRING, 10);
+		for (int i = 1; i <= 100; i++) {
+			history.append(new EphemeralAttributeValue(i, "value" + i));
+		}
+
+		// Only spilled values survive
+		history = new SpillHistory(directory, AttributeType.STRING, 10);
+		assertEquals(90, history.size());
+		assertEquals("value90", history.get(89).value());
+	}
+
+	@Test
+	void testCompact() throws Exception {
+		var history = new SpillHistory(directory, AttributeType.STRING, 1);
+		for (int i = 1; i <= 100; i++) {
+			history.append(new EphemeralAttributeValue(i, "value" + i));
+		}
+		history.removeFirst(40);
+		history.compact();
+
+		assertEquals(60, history.size());
+		assertEquals("value41", history.get(0).value());
+		try (var files = Files.list(directory)) {
+			assertEquals(1, files.count());
+		}
+	}
+
+	@Test
+	void testRetainCompacts() throws Exception {
+		var history = new SpillHistory(directory, AttributeType.STRING, 1);
+		for (int i = 1; i <= 100; i++) {
+			history.append(new EphemeralAttributeValue(i, "value" + i));
+		}
+
+		// Removing less than half doesn't rewrite the segment
+		history.retain(RetentionPolicy.TIME_LIMITED, 60, 100);
+		assertEquals(61, history.size());
+		try (var files = Files.list(directory)) {
+			assertEquals("0000000000000000.seg", files.findFirst().get().getFileName().toString());
+		}
+
+		history.retain(RetentionPolicy.TIME_LIMITED, 10, 100);
+		assertEquals(11, history.size());
+		assertEquals("value90", history.get(0).value());
+		try (var files = Files.list(directory)) {
+			assertEquals("0000000000000001.seg", files.findFirst().get().getFileName().toString());
+		}
+	}
+
+	@Test
+	void testClose() throws Exception {
+		var history = new SpillHistory(directory.resolve("a"), AttributeType.STRING, 1);
+		for (int i = 1; i <= 100; i++) {
+			history.append(new EphemeralAttributeValue(i, "value" + i));
+		}
+		history.close();
+
+		assertFalse(Files.exists(directory.resolve("a")));
+	}
+}
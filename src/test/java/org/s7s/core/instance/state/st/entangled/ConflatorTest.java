@@ -0,0 +1,151 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.st.entangled;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.s7s.core.instance.state.STStore.STStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import org.s7s.core.protocol.Stream.EV_STStreamData;
+import org.s7s.core.instance.state.st.EphemeralDocument;
+
+class ConflatorTest {
+
+	@AfterEach
+	void close() throws Exception {
+		STStore.close();
+	}
+
+	@Test
+	void testConflate() {
+		var root = new EphemeralDocument(null, null);
+		var sent = new ArrayList<EV_STStreamData>();
+		var conflator = new Conflator(root.oid(), sent::add);
+
+		var attribute = root.attribute("a");
+		for (int i = 0; i < 10; i++) {
+			attribute.set("value" + i);
+			conflator.add(attribute);
+		}
+
+		// Only the latest value is sent
+		conflator.flush();
+		assertEquals(1, sent.size());
+		assertEquals("a", sent.get(0).getOid());
+		assertEquals("value9", sent.get(0).getString());
+
+		// Nothing changed since the last flush
+		conflator.flush();
+		assertEquals(1, sent.size());
+	}
+
+	@Test
+	void testMultipleAttributes() {
+		var root = new EphemeralDocument(null, null);
+		var sent = new ArrayList<EV_STStreamData>();
+		var conflator = new Conflator(root.oid(), sent::add);
+
+		for (var id : List.of("a", "b", "a", "c", "b")) {
+			root.attribute(id).set(id);
+			conflator.add(root.attribute(id));
+		}
+
+		conflator.flush();
+		assertEquals(List.of("a", "b", "c"), sent.stream().map(EV_STStreamData::getOid).sorted().toList());
+
+		// A later change is sent in the next period
+		root.attribute("b").set("b2");
+		conflator.add(root.attribute("b"));
+		conflator.flush();
+		assertEquals(4, sent.size());
+		assertEquals("b2", sent.get(3).getString());
+	}
+
+	@Test
+	void testRemovedDocument() {
+		var root = new EphemeralDocument(null, null);
+		var sent = new ArrayList<EV_STStreamData>();
+		var conflator = new Conflator(root.oid(), sent::add);
+
+		var document = root.document("d");
+		document.attribute("x").set("1");
+		conflator.add(document.attribute("x"));
+		root.attribute("y").set("2");
+		conflator.add(root.attribute("y"));
+
+		root.remove("d");
+		conflator.remove(document);
+		conflator.flush();
+
+		// The removal isn't followed by a change that would recreate the document
+		assertEquals(List.of("d", "y"), sent.stream().map(EV_STStreamData::getOid).toList());
+		assertTrue(sent.get(0).getRemoved());
+
+		var peer = new EphemeralDocument(null, null);
+		peer.document("d").attribute("x").set("1");
+		sent.forEach(peer::merge);
+		assertNull(peer.getDocument("d"));
+		assertEquals("2", peer.attribute("y").get());
+	}
+
+	@Test
+	void testCleared() {
+		var root = new EphemeralDocument(null, null);
+		var sent = new ArrayList<EV_STStreamData>();
+		var conflator = new Conflator(root.oid(), sent::add);
+
+		var attribute = root.document("d").attribute("x");
+		attribute.set("1");
+		conflator.add(attribute);
+		attribute.set(null);
+		conflator.add(attribute);
+		conflator.flush();
+
+		assertEquals(1, sent.size());
+		assertTrue(sent.get(0).getRemoved());
+		assertEquals("d/x", sent.get(0).getOid());
+	}
+
+	@Test
+	void testExpired() {
+		STStore.init(config -> {
+		});
+
+		var root = new EphemeralDocument(null, null);
+		var sent = new ArrayList<EV_STStreamData>();
+		var conflator = new Conflator(root.oid(), sent::add);
+
+		var attribute = root.attribute("a");
+		attribute.set("1");
+		attribute.setTtl(100);
+		await().atMost(5, TimeUnit.SECONDS).until(() -> !attribute.isPresent());
+		conflator.add(attribute);
+		conflator.flush();
+
+		// The expiry is sent as a removal
+		assertEquals(1, sent.size());
+		assertTrue(sent.get(0).getRemoved());
+		assertEquals("a", sent.get(0).getOid());
+
+		// So the peer doesn't keep the stale value
+		var peer = new EphemeralDocument(null, null);
+		peer.attribute("a").set("1");
+		sent.forEach(peer::merge);
+		assertNull(peer.getAttribute("a"));
+	}
+}
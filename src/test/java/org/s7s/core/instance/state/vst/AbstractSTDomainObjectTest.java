@@ -0,0 +1,54 @@
+//============================================================================//
+//                                                                            //
+//            Copyright © 2015 - 2022 Sandpolis Software Foundation           //
+//                                                                            //
+//  This source file is subject to the terms of the Mozilla Public License    //
+//  version 2. You may not use this file except in compliance with the MPLv2. //
+//                                                                            //
+//============================================================================//
+package org.s7s.core.instance.state.vst;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import org.s7s.core.instance.state.oid.Oid;
+import org.s7s.core.instance.state.st.EphemeralDocument;
+import org.s7s.core.instance.state.st.STDocument;
+
+class AbstractSTDomainObjectTest {
+
+	private static final Oid NAME = Oid.of("/*/name");
+
+	private static final Oid SIZE = Oid.of("/*/size");
+
+	private static final class Item extends AbstractSTDomainObject {
+
+		private static final Slots SLOTS = new Slots(NAME);
+
+		Item(STDocument document) {
+			super(document, SLOTS);
+		}
+
+		String name() {
+			return get(0).asString();
+		}
+	}
+
+	@Test
+	void testSlots() {
+		var root = new EphemeralDocument(null, null);
+		var item = new Item(root.document("a"));
+
+		item.set(NAME, "test");
+		item.set(SIZE, 10);
+
+		assertSame(root.document("a").attribute("name"), item.get(NAME));
+		assertEquals("test", item.name());
+
+		// Attributes without a slot are resolved by path
+		assertSame(root.document("a").attribute("size"), item.get(SIZE));
+		assertEquals(10, item.get(SIZE).asInt());
+	}
+}